@@ -9,14 +9,26 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.hadoop.fs.Path;
+
+import prediction.BinnedDataset;
 import prediction.HistoricMeanPredictor;
 import prediction.HistoricTrendPredictor;
 import prediction.LastValuePredictor;
 import prediction.MahoutPredictor;
 import prediction.Predictor;
+import prediction.SgdSettings;
 
 import mapreduce.BikeMiBinDriver;
+import mapreduce.BikeMiBinLocalRunner;
+import mapreduce.BikeMiTrainDriver;
+import mapreduce.BinningSummary;
+import mapreduce.FineBinTable;
 
 import utility.DateUtil;
 
@@ -26,6 +38,10 @@ import utility.DateUtil;
  * <li>trasformare il dataset bikeMi in un formato utile per la predizione;
  * <li>instanzia e allena 4 predittori;</li>
  * <li>stampa le performance dei 4 predittori</li>.
+ * In modalità sweep i predittori sono invece valutati su una griglia di parametri, trasformando
+ * il dataset una sola volta (vedi {@link ParameterSweep}); in modalità backtest sono valutati su
+ * più giorni di test (vedi {@link RollingBacktest}). I predittori possono anche essere allenati con un Job
+ * MapReduce (vedi {@link BikeMiTrainDriver}), caricando nel driver solo i modelli e il test set.
  *
  * @author Armando Segatori
  * @author Enrico Carniani
@@ -72,15 +88,108 @@ public class BikemiMain {
     private static int NUM_TARGET = 4;
 
     /**
-     * Finestra di predizione (Prediction Window)
+     * Finestre di predizione (Prediction Window), una per ogni orizzonte predetto
      */
-    private static int PW = 2;
+    private static int[] PW = {2};
 
     /**
      * Numero di bins in un giorno
      */
     private static int BINS_PER_DAY; // day_minutes / bin_minutes
 
+    /**
+     * Numero di Reducer utilizzati per trasformare il dataset
+     */
+    private static int NUM_REDUCERS = 1;
+
+    /**
+     * Motore utilizzato per trasformare il dataset: <code>mapreduce</code> per lanciare il Job MapReduce,
+     * <code>local</code> per eseguire la trasformazione all'interno della JVM corrente
+     */
+    private static String BIN_ENGINE = "mapreduce";
+
+    /**
+     * Formato del dataset trasformato: <code>sequence</code> o <code>columnar</code>
+     */
+    private static String BIN_FORMAT = BikeMiBinDriver.SEQUENCE_FORMAT;
+
+    /**
+     * Codec con cui comprimere il dataset trasformato in <code>SequenceFile</code> (<code>none</code> per non comprimerlo)
+     */
+    private static String BIN_COMPRESSION = BikeMiBinDriver.NO_COMPRESSION;
+
+    /**
+     * Se <code>true</code> sono trasformati solo i giorni non ancora presenti nel dataset trasformato
+     */
+    private static boolean BIN_INCREMENTAL = false;
+
+    /**
+     * Numero di thread utilizzati dalla trasformazione locale del dataset
+     */
+    private static int LOCAL_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Numero di thread utilizzati per allenare e valutare i predittori
+     */
+    private static int TRAIN_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Motore utilizzato per allenare i predittori: <code>local</code> per allenarli all'interno della JVM corrente,
+     * <code>mapreduce</code> per allenarli con il Job MapReduce {@link BikeMiTrainDriver} e caricare solo i modelli
+     */
+    private static String TRAIN_ENGINE = "local";
+
+    /**
+     * Parametri dell'allenamento SGD del predittore Mahout (vedi {@link SgdSettings})
+     */
+    private static SgdSettings SGD = SgdSettings.DEFAULT;
+
+    /**
+     * Se <code>true</code> i predittori sono allenati e valutati contemporaneamente, ognuno in un proprio thread
+     */
+    private static boolean CONCURRENT_PREDICTORS = false;
+
+    /**
+     * Directory in cui salvare i modelli allenati (vuota per non salvarli)
+     */
+    private static String MODEL_PATH = "";
+
+    /**
+     * Se <code>true</code> i predittori sono valutati su tutta la griglia dei parametri <code>SWEEP_*</code>
+     * invece che sui soli parametri correnti
+     */
+    private static boolean SWEEP = false;
+
+    /**
+     * Dimensioni del bin in minuti della griglia (default: MINUTE_INTERVAL)
+     */
+    private static int[] SWEEP_MINUTE_INTERVAL;
+
+    /**
+     * Numeri di etichette della griglia (default: NUM_TARGET)
+     */
+    private static int[] SWEEP_NUM_TARGET;
+
+    /**
+     * Finestre di predizione della griglia (default: PW)
+     */
+    private static int[] SWEEP_PW;
+
+    /**
+     * Se <code>true</code> i predittori sono valutati con la validazione rolling-origin invece che sul solo ultimo giorno
+     */
+    private static boolean BACKTEST = false;
+
+    /**
+     * Primo giorno di test della validazione rolling-origin
+     */
+    private static int BACKTEST_FIRST_DAY = DAYS / 2;
+
+    /**
+     * Numero di segmenti della validazione rolling-origin: i predittori sono allenati da zero solo nel primo fold di ogni segmento
+     */
+    private static int BACKTEST_SEGMENTS = 1;
+
     /**
      * Directory in cui è memorizzati il proprio dataset
      */
@@ -98,41 +207,218 @@ public class BikemiMain {
             MINUTE_INTERVAL = Integer.parseInt(config.getProperty("MINUTE_INTERVAL"));
             MILLS_INTERVAL = MINUTE_INTERVAL * 60 * 1000;
             NUM_TARGET = Integer.parseInt(config.getProperty("NUM_TARGET"));
-            PW = Integer.parseInt(config.getProperty("PW"));
+            PW = parseInts(config.getProperty("PW"));
             START_DATE = config.getProperty("START_DATE");
             BINS_PER_DAY = 1440 / MINUTE_INTERVAL; // day_minutes / bin_minutes;                
+            NUM_REDUCERS = Integer.parseInt(config.getProperty("NUM_REDUCERS", "" + NUM_REDUCERS));
+            BIN_ENGINE = config.getProperty("BIN_ENGINE", BIN_ENGINE).trim();
+            LOCAL_THREADS = Integer.parseInt(config.getProperty("LOCAL_THREADS", "" + LOCAL_THREADS));
+            BIN_FORMAT = config.getProperty("BIN_FORMAT", BIN_FORMAT).trim();
+            BIN_COMPRESSION = config.getProperty("BIN_COMPRESSION", BIN_COMPRESSION).trim();
+            BIN_INCREMENTAL = Boolean.parseBoolean(config.getProperty("BIN_INCREMENTAL", "" + BIN_INCREMENTAL).trim());
+            TRAIN_THREADS = Integer.parseInt(config.getProperty("TRAIN_THREADS", "" + TRAIN_THREADS));
+            TRAIN_ENGINE = config.getProperty("TRAIN_ENGINE", TRAIN_ENGINE).trim();
+            SGD = new SgdSettings(Integer.parseInt(config.getProperty("SGD_EPOCHS", "1").trim()),
+                    Boolean.parseBoolean(config.getProperty("SGD_SHUFFLE", "false").trim()),
+                    Long.parseLong(config.getProperty("SGD_SEED", "0").trim()),
+                    Double.parseDouble(config.getProperty("SGD_LEARNING_RATE", "" + SgdSettings.DEFAULT.getLearningRate()).trim()),
+                    Double.parseDouble(config.getProperty("SGD_LAMBDA", "" + SgdSettings.DEFAULT.getLambda()).trim()),
+                    Integer.parseInt(config.getProperty("SGD_SEARCH_FOLDS", "0").trim()),
+                    parseDoubles(config.getProperty("SGD_SEARCH_LEARNING_RATES", "")),
+                    parseDoubles(config.getProperty("SGD_SEARCH_LAMBDAS", "")),
+                    Long.parseLong(config.getProperty("SGD_SEARCH_BUDGET_UPDATES", "0").trim()),
+                    Integer.parseInt(config.getProperty("SGD_SEARCH_THREADS", "1").trim()));
+            CONCURRENT_PREDICTORS = Boolean.parseBoolean(config.getProperty("CONCURRENT_PREDICTORS", "" + CONCURRENT_PREDICTORS).trim());
+            MODEL_PATH = config.getProperty("MODEL_PATH", MODEL_PATH).trim();
+            BACKTEST = Boolean.parseBoolean(config.getProperty("BACKTEST", "" + BACKTEST).trim());
+            BACKTEST_FIRST_DAY = Integer.parseInt(config.getProperty("BACKTEST_FIRST_DAY", "" + DAYS / 2).trim());
+            BACKTEST_SEGMENTS = Integer.parseInt(config.getProperty("BACKTEST_SEGMENTS", "" + BACKTEST_SEGMENTS).trim());
+            SWEEP = Boolean.parseBoolean(config.getProperty("SWEEP", "" + SWEEP).trim());
+            SWEEP_MINUTE_INTERVAL = parseInts(config.getProperty("SWEEP_MINUTE_INTERVAL", "" + MINUTE_INTERVAL));
+            SWEEP_NUM_TARGET = parseInts(config.getProperty("SWEEP_NUM_TARGET", "" + NUM_TARGET));
+            SWEEP_PW = parseInts(config.getProperty("SWEEP_PW", config.getProperty("PW")));
             INPUT_ROOT_PATH = ROOT_PATH + "input";
         } catch (IOException ioe) {
             System.err.println("IOException in loadProps");
         }
     }
 
+    /**
+     * Legge una lista di interi separati da virgole (ad esempio le finestre di predizione <code>1,2,4</code>).
+     *
+     * @param value valore della proprietà
+     * @return gli interi della lista
+     */
+    private static int[] parseInts(String value) {
+        String[] tokens = value.split(",");
+        int[] pws = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+            pws[i] = Integer.parseInt(tokens[i].trim());
+        return pws;
+    }
+
+    /**
+     * Legge una lista di numeri reali separati da virgole (ad esempio i learning rate <code>0.1,1,10</code>).
+     *
+     * @param value valore della proprietà (vuoto per una lista vuota)
+     * @return i numeri della lista
+     */
+    private static double[] parseDoubles(String value) {
+        if (value.trim().isEmpty())
+            return new double[0];
+        String[] tokens = value.split(",");
+        double[] values = new double[tokens.length];
+        for (int i = 0; i < tokens.length; i++)
+            values[i] = Double.parseDouble(tokens[i].trim());
+        return values;
+    }
+
+    /**
+     * Crea i 4 predittori.
+     *
+     * @param numTarget numero di valori che la variabile da predire può assumere
+     * @param pws finestre di predizione
+     * @param numThreads numero di thread utilizzati per allenare e valutare il predittore Mahout,
+     *          allenato con i parametri SGD della configurazione
+     * @return la lista dei predittori
+     */
+    static List<Predictor> createPredictors(int numTarget, int[] pws, int numThreads) {
+        List<Predictor> preidctors = new ArrayList<Predictor>();
+        preidctors.add(new MahoutPredictor(numTarget, pws, numThreads, SGD)); // Add the Mahout Predictor Wrapper to the list
+        preidctors.add(new LastValuePredictor(numTarget, pws)); // Add the Last Value Predictor to the list
+        preidctors.add(new HistoricMeanPredictor(numTarget, pws)); // Add the Historic Mean Predictor to the list
+        preidctors.add(new HistoricTrendPredictor(numTarget, pws)); // Add the Historic Trend Predictor to the list
+        return preidctors;
+    }
+
+    /**
+     * Legge il dataset iniziale una sola volta e valuta i predittori su tutta la griglia dei parametri.
+     *
+     * @param startDate data di inizio
+     * @throws Exception
+     */
+    private void sweep(Date startDate) throws Exception {
+        ParameterSweep sweep = new ParameterSweep(SWEEP_MINUTE_INTERVAL, SWEEP_NUM_TARGET, SWEEP_PW, DAYS, TRAIN_THREADS);
+        BinningSummary summary = new BinningSummary("sweep");
+        FineBinTable table = BikeMiBinLocalRunner.readFineBins(SPLITTER, startDate, DAYS,
+                sweep.getFinestMinuteInterval() * 60 * 1000L, LOCAL_THREADS, INPUT_ROOT_PATH, summary);
+        // Print the counters of the binning
+        System.out.println(summary);
+
+        long start = System.currentTimeMillis();
+        String results = sweep.run(table);
+        System.out.println(results + "Timing: " + (System.currentTimeMillis() - start) + " ms\n");
+    }
+
     private void process() throws Exception {
 
         // Cast date string to a data class
         Date startDate = DateUtil.stringIso8601ToDate(START_DATE);
+        if (SWEEP) {
+            sweep(startDate);
+            return;
+        }
         // Call the job to transform the dataset
-        BikeMiBinDriver.runJob(SPLITTER, startDate, DAYS, MILLS_INTERVAL, NUM_TARGET, INPUT_ROOT_PATH);
+        BinningSummary summary;
+        if ("local".equals(BIN_ENGINE))
+            summary = BikeMiBinLocalRunner.runJob(SPLITTER, startDate, DAYS, MILLS_INTERVAL, NUM_TARGET, LOCAL_THREADS, BIN_FORMAT, BIN_COMPRESSION, BIN_INCREMENTAL, INPUT_ROOT_PATH);
+        else
+            summary = BikeMiBinDriver.runJob(SPLITTER, startDate, DAYS, MILLS_INTERVAL, NUM_TARGET, NUM_REDUCERS, BIN_FORMAT, BIN_COMPRESSION, BIN_INCREMENTAL, INPUT_ROOT_PATH);
+        // Print the counters of the binning
+        System.out.println(summary);
+
+        // Train the models with the MapReduce Job and load only the test set
+        if ("mapreduce".equals(TRAIN_ENGINE)) {
+            trainDistributed();
+            return;
+        }
+
+        // Read the binned dataset once for all the predictors
+        final BinnedDataset dataset = BinnedDataset.load(BikeMiBinDriver.getOutputPath(),
+                BikeMiBinDriver.SPLITTER_BIN, DAYS, BINS_PER_DAY, NUM_TARGET);
+
+        // Evaluate the predictors on several test days
+        if (BACKTEST) {
+            long start = System.currentTimeMillis();
+            String results = new RollingBacktest(BACKTEST_FIRST_DAY, BACKTEST_SEGMENTS, PW, TRAIN_THREADS).run(dataset);
+            System.out.println(results + "\nTiming: " + (System.currentTimeMillis() - start) + " ms\n");
+            return;
+        }
 
         // Create the predictors list
-        List<Predictor> preidctors = new ArrayList<Predictor>();
-        preidctors.add(new MahoutPredictor(NUM_TARGET, PW)); // Add the Mahout Predictor Wrapper to the list
-        preidctors.add(new LastValuePredictor(NUM_TARGET, PW)); // Add the Last Value Predictor to the list
-        preidctors.add(new HistoricMeanPredictor(NUM_TARGET, PW)); // Add the Historic Mean Predictor to the list
-        preidctors.add(new HistoricTrendPredictor(NUM_TARGET, PW)); // Add the Historic Trend Predictor to the list
+        List<Predictor> preidctors = createPredictors(NUM_TARGET, PW, TRAIN_THREADS);
+
+        // Create a task for each predictor: train it and return the elapsed time
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for (final Predictor predictor : preidctors) {
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    long start = System.currentTimeMillis();
+                    predictor.buildClassifier(dataset);
+                    return System.currentTimeMillis() - start;
+                }
+            });
+        }
+
+        // Run the tasks, one after the other or all together
+        List<Long> millis = new ArrayList<Long>();
+        if (CONCURRENT_PREDICTORS) {
+            ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+            try {
+                for (Future<Long> future : pool.invokeAll(tasks))
+                    millis.add(future.get());
+            } finally {
+                pool.shutdownNow();
+            }
+        } else {
+            for (Callable<Long> task : tasks)
+                millis.add(task.call());
+        }
+
+        // Save the trained models
+        if (!MODEL_PATH.isEmpty()) {
+            for (Predictor predictor : preidctors)
+                predictor.save(new Path(MODEL_PATH, predictor.getClass().getSimpleName() + ".model"));
+        }
 
-        // For each predictor, train it and print performance
+        // Print the performance of each predictor, in the order of the list
+        StringBuilder sb = new StringBuilder("Performance:\n");
+        for (Predictor predictor : preidctors)
+            sb.append(predictor.printInfo()).append("\n\n");
+        sb.append("Timing (").append(CONCURRENT_PREDICTORS ? "concurrent" : "sequential").append("):\n");
+        for (int i = 0; i < preidctors.size(); i++)
+            sb.append("\t").append(preidctors.get(i).getClass().getSimpleName()).append(": ")
+                    .append(millis.get(i)).append(" ms\n");
+
+        System.out.println(sb.toString());
+
+    }
+
+    /**
+     * Allena i modelli dei predittori con il Job MapReduce {@link BikeMiTrainDriver}, poi carica i modelli
+     * e valuta i predittori sul test set, senza leggere il training set.
+     *
+     * @throws Exception
+     */
+    private void trainDistributed() throws Exception {
+        long start = System.currentTimeMillis();
+        BikeMiTrainDriver.runJob(DAYS, BINS_PER_DAY, NUM_TARGET, PW, SGD, NUM_REDUCERS);
+        long trainMillis = System.currentTimeMillis() - start;
+
+        // Load the models and evaluate them on the test set
+        BinnedDataset dataset = BinnedDataset.loadTest(BikeMiBinDriver.getOutputPath(),
+                BikeMiBinDriver.SPLITTER_BIN, DAYS, BINS_PER_DAY, NUM_TARGET);
+        List<Predictor> preidctors = createPredictors(NUM_TARGET, PW, TRAIN_THREADS);
         StringBuilder sb = new StringBuilder("Performance:\n");
         for (Predictor predictor : preidctors) {
-            // Train predictor
-            predictor.buildClassifier(BikeMiBinDriver.getOutputPath(),
-                    BikeMiBinDriver.SPLITTER_BIN, DAYS, BINS_PER_DAY, NUM_TARGET);
-            // Get predictor performance
+            predictor.load(BikeMiTrainDriver.getModelPath(predictor.getModelKind()));
+            predictor.evaluate(dataset.getTest());
             sb.append(predictor.printInfo()).append("\n\n");
         }
+        sb.append("Timing (mapreduce):\n\tTraining Job: ").append(trainMillis).append(" ms\n");
 
         System.out.println(sb.toString());
-
     }
 
     private void run(String args[]) throws Exception {
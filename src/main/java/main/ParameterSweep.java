@@ -0,0 +1,185 @@
+package main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mapreduce.FineBinTable;
+
+import prediction.AggregatedBinnedReader;
+import prediction.BinnedDataset;
+import prediction.Predictor;
+
+/**
+ * Valuta i predittori su una griglia di parametri (dimensione del bin, numero di etichette e finestra di predizione)
+ * leggendo il dataset iniziale una sola volta.<br>
+ * Il dataset iniziale è aggregato con l'intervallo più fine che divide tutti gli intervalli della griglia
+ * (vedi {@link #getFinestMinuteInterval()}) in una {@link FineBinTable}: il dataset trasformato di ogni coppia
+ * (intervallo, numero di etichette) è ricostruito in memoria fondendo i bin fini (vedi {@link AggregatedBinnedReader})
+ * ed è identico a quello prodotto trasformando il dataset iniziale con quei parametri.
+ * Tutte le finestre di predizione sono valutate dagli stessi predittori (vedi {@link Predictor#getPws()}).<br>
+ * Le coppie (intervallo, numero di etichette) sono valutate in parallelo, una per thread; i risultati sono
+ * riportati in un'unica tabella, nell'ordine della griglia.
+ *
+ * @author Armando Segatori
+ * @see BikemiMain
+ */
+public class ParameterSweep {
+
+    /**
+     * Minuti in un giorno
+     */
+    private static final int MINUTES_IN_A_DAY = 1440;
+
+    /**
+     * Millisecondi in un minuto
+     */
+    private static final long MILLS_IN_A_MINUTE = 60 * 1000;
+
+    private final int[] minuteIntervals;
+
+    private final int[] numTargets;
+
+    private final int[] pws;
+
+    /**
+     * Numero di giorni considerati
+     */
+    private final int days;
+
+    /**
+     * Numero di coppie (intervallo, numero di etichette) valutate contemporaneamente
+     */
+    private final int numThreads;
+
+    /**
+     * Costruttore
+     *
+     * @param minuteIntervals dimensioni del bin in minuti (divisori di un giorno)
+     * @param numTargets numeri di valori che la variabile da predire può assumere
+     * @param pws finestre di predizione
+     * @param days numero di giorni considerati
+     * @param numThreads numero di coppie (intervallo, numero di etichette) valutate contemporaneamente
+     */
+    public ParameterSweep(int[] minuteIntervals, int[] numTargets, int[] pws, int days, int numThreads) {
+        if (minuteIntervals.length == 0 || numTargets.length == 0 || pws.length == 0)
+            throw new IllegalArgumentException("Empty parameter grid");
+        for (int minuteInterval : minuteIntervals) {
+            if (minuteInterval <= 0 || MINUTES_IN_A_DAY % minuteInterval != 0)
+                throw new IllegalArgumentException("The interval must divide a day: " + minuteInterval);
+        }
+        for (int numTarget : numTargets) {
+            if (numTarget < 2)
+                throw new IllegalArgumentException("Invalid number of labels: " + numTarget);
+        }
+
+        this.minuteIntervals = minuteIntervals.clone();
+        this.numTargets = numTargets.clone();
+        this.pws = pws.clone();
+        this.days = days;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @return la dimensione del bin più grande che divide tutti gli intervalli della griglia (il loro massimo comune divisore)
+     */
+    public int getFinestMinuteInterval() {
+        int gcd = 0;
+        for (int minuteInterval : minuteIntervals) {
+            int a = gcd, b = minuteInterval;
+            while (b != 0) {
+                int r = a % b;
+                a = b;
+                b = r;
+            }
+            gcd = a;
+        }
+        return gcd;
+    }
+
+    /**
+     * Allena e valuta i predittori per ogni punto della griglia.
+     *
+     * @param table osservazioni aggregate con un intervallo che divide tutti gli intervalli della griglia
+     * @return la tabella dei risultati: per ogni punto della griglia l'accuratezza di ogni predittore
+     * @throws InterruptedException
+     */
+    public String run(final FineBinTable table) throws InterruptedException {
+        for (int minuteInterval : minuteIntervals) {
+            if ((minuteInterval * MILLS_IN_A_MINUTE) % table.getInterval() != 0)
+                throw new IllegalArgumentException("The interval " + minuteInterval
+                        + " is not a multiple of the binned interval " + table.getInterval() + " ms");
+        }
+
+        // Submit a task for each (interval, labels) pair
+        List<Future<List<Predictor>>> futures = new ArrayList<Future<List<Predictor>>>();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (final int minuteInterval : minuteIntervals) {
+                for (final int numTarget : numTargets) {
+                    futures.add(pool.submit(new Callable<List<Predictor>>() {
+                        @Override
+                        public List<Predictor> call() throws IOException {
+                            return evaluate(table, minuteInterval, numTarget);
+                        }
+                    }));
+                }
+            }
+
+            // Build the table in the order of the grid
+            StringBuilder sb = new StringBuilder("Sweep (" + minuteIntervals.length * numTargets.length * pws.length
+                    + " grid points, bins of " + table.getInterval() / MILLS_IN_A_MINUTE + " minutes read once):\n");
+            sb.append("MINUTE_INTERVAL\tNUM_TARGET\tPW");
+            int i = 0;
+            for (int minuteInterval : minuteIntervals) {
+                for (int numTarget : numTargets) {
+                    List<Predictor> predictors = futures.get(i++).get();
+                    if (i == 1) {
+                        for (Predictor predictor : predictors)
+                            sb.append("\t").append(predictor.getClass().getSimpleName());
+                        sb.append("\n");
+                    }
+                    for (int pw : pws) {
+                        sb.append(minuteInterval).append("\t").append(numTarget).append("\t").append(pw);
+                        for (Predictor predictor : predictors)
+                            sb.append("\t").append(String.format("%.3f", predictor.getConfusionMatrix(pw).getAccuracy()));
+                        sb.append("\n");
+                    }
+                }
+            }
+            return sb.toString();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sweep failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Ricostruisce il dataset trasformato di un punto della griglia, allena e valuta i predittori su tutte le finestre di predizione.
+     *
+     * @param table osservazioni aggregate con l'intervallo fine
+     * @param minuteInterval dimensione del bin in minuti
+     * @param numTarget numero di valori che la variabile da predire può assumere
+     * @return i predittori valutati
+     * @throws IOException
+     */
+    private List<Predictor> evaluate(FineBinTable table, int minuteInterval, int numTarget) throws IOException {
+        int factor = (int) (minuteInterval * MILLS_IN_A_MINUTE / table.getInterval());
+        int binsPerDay = MINUTES_IN_A_DAY / minuteInterval;
+        BinnedDataset dataset = BinnedDataset.load(new AggregatedBinnedReader(table, factor, binsPerDay, numTarget),
+                days, binsPerDay, numTarget);
+
+        // The grid points already run in parallel: train each predictor with a single thread
+        List<Predictor> predictors = BikemiMain.createPredictors(numTarget, pws, 1);
+        for (Predictor predictor : predictors)
+            predictor.buildClassifier(dataset);
+        return predictors;
+    }
+
+}
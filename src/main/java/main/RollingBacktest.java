@@ -0,0 +1,244 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import prediction.BinnedDataset;
+import prediction.Predictor;
+import prediction.PrimitiveConfusionMatrix;
+import prediction.StationSeries;
+
+import utility.BinUtil;
+
+/**
+ * Validazione rolling-origin dei predittori: per ogni giorno di test d di un intervallo i predittori sono allenati
+ * sui giorni da 0 a d-1 e valutati sul giorno d (un fold). I risultati sono riportati per ogni fold e complessivamente,
+ * unendo le matrici di confusione di tutti i fold.<br>
+ * I fold sono suddivisi in segmenti di giorni consecutivi. Nel primo fold di un segmento i predittori sono allenati
+ * da zero; nei fold successivi il giorno appena valutato è aggiunto al modello con
+ * {@link Predictor#update(int, int[], int[], double[], int[], int[])}, senza ripetere l'allenamento sui giorni precedenti,
+ * come avverrebbe in esercizio. Ogni predittore di ogni segmento è una catena di fold indipendente dalle altre e tutte
+ * le catene sono eseguite in parallelo: con un solo segmento l'allenamento completo è eseguito una sola volta, con un
+ * segmento per fold tutti i fold sono allenati da zero e valutati contemporaneamente. Il risultato dipende dal numero
+ * di segmenti, ma non dal numero di thread.
+ *
+ * @author Armando Segatori
+ * @see BinnedDataset#getFold(int)
+ */
+public class RollingBacktest {
+
+    /**
+     * Primo giorno di test
+     */
+    private final int firstTestDay;
+
+    /**
+     * Numero di segmenti in cui sono suddivisi i fold
+     */
+    private final int numSegments;
+
+    private final int[] pws;
+
+    /**
+     * Numero di catene valutate contemporaneamente
+     */
+    private final int numThreads;
+
+    /**
+     * Costruttore
+     *
+     * @param firstTestDay primo giorno di test (almeno 1): i fold vanno da questo giorno all'ultimo
+     * @param numSegments numero di segmenti in cui sono suddivisi i fold
+     * @param pws finestre di predizione
+     * @param numThreads numero di catene valutate contemporaneamente
+     */
+    public RollingBacktest(int firstTestDay, int numSegments, int[] pws, int numThreads) {
+        if (firstTestDay < 1)
+            throw new IllegalArgumentException("The first test day must leave at least one training day: " + firstTestDay);
+        this.firstTestDay = firstTestDay;
+        this.numSegments = Math.max(1, numSegments);
+        this.pws = pws.clone();
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Esegue la validazione su tutti i fold del dataset.
+     *
+     * @param dataset il dataset trasformato di tutti i giorni
+     * @return la tabella con l'accuratezza di ogni predittore per ogni fold e finestra di predizione,
+     *          seguita dalle matrici di confusione complessive
+     * @throws InterruptedException
+     */
+    public String run(final BinnedDataset dataset) throws InterruptedException {
+        int numFolds = dataset.getDays() - firstTestDay;
+        if (numFolds < 1)
+            throw new IllegalArgumentException("No test day after day " + firstTestDay + " in " + dataset.getDays() + " days");
+        int segments = Math.min(numSegments, numFolds);
+
+        // Submit a chain for each predictor of each segment
+        List<Predictor> predictors = null;
+        List<List<Future<PrimitiveConfusionMatrix[][]>>> futures = new ArrayList<List<Future<PrimitiveConfusionMatrix[][]>>>();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (int s = 0; s < segments; s++) {
+                final int from = firstTestDay + s * numFolds / segments;
+                final int to = firstTestDay + (s + 1) * numFolds / segments;
+                // The chains already run in parallel: train each predictor with a single thread
+                predictors = BikemiMain.createPredictors(dataset.getNumTarget(), pws, 1);
+                List<Future<PrimitiveConfusionMatrix[][]>> segmentFutures = new ArrayList<Future<PrimitiveConfusionMatrix[][]>>();
+                for (final Predictor predictor : predictors) {
+                    segmentFutures.add(pool.submit(new Callable<PrimitiveConfusionMatrix[][]>() {
+                        @Override
+                        public PrimitiveConfusionMatrix[][] call() {
+                            return runChain(predictor, dataset, from, to);
+                        }
+                    }));
+                }
+                futures.add(segmentFutures);
+            }
+
+            // Collect the matrices of each predictor, fold and horizon in the order of the folds
+            PrimitiveConfusionMatrix[][][] matrices = new PrimitiveConfusionMatrix[predictors.size()][numFolds][];
+            int fold = 0;
+            for (List<Future<PrimitiveConfusionMatrix[][]>> segmentFutures : futures) {
+                int segmentFolds = 0;
+                for (int p = 0; p < predictors.size(); p++) {
+                    PrimitiveConfusionMatrix[][] chain = segmentFutures.get(p).get();
+                    System.arraycopy(chain, 0, matrices[p], fold, chain.length);
+                    segmentFolds = chain.length;
+                }
+                fold += segmentFolds;
+            }
+
+            return report(predictors, matrices, dataset.getNumTarget(), segments);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Backtest failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Valuta un predittore sui fold consecutivi di un segmento.
+     *
+     * @param predictor il predittore, non ancora allenato
+     * @param dataset il dataset trasformato di tutti i giorni
+     * @param from primo giorno di test del segmento
+     * @param to giorno successivo all'ultimo giorno di test del segmento
+     * @return per ogni fold del segmento le matrici di confusione di ogni finestra di predizione
+     */
+    private PrimitiveConfusionMatrix[][] runChain(Predictor predictor, BinnedDataset dataset, int from, int to) {
+        PrimitiveConfusionMatrix[][] matrices = new PrimitiveConfusionMatrix[to - from][pws.length];
+        for (int testDay = from; testDay < to; testDay++) {
+            if (testDay == from)
+                predictor.buildClassifier(dataset.getFold(testDay)); // train from scratch
+            else {
+                update(predictor, dataset, testDay - 1); // add the previous test day to the model
+                predictor.evaluate(dataset.getDay(testDay));
+            }
+
+            for (int h = 0; h < pws.length; h++)
+                matrices[testDay - from][h] = predictor.getPrimitiveConfusionMatrix(pws[h]);
+        }
+        return matrices;
+    }
+
+    /**
+     * Aggiorna il modello con tutte le transazioni di un giorno.
+     *
+     * @param predictor il predittore da aggiornare
+     * @param dataset il dataset trasformato di tutti i giorni
+     * @param dayId id del giorno
+     */
+    private static void update(Predictor predictor, BinnedDataset dataset, int dayId) {
+        Map<Integer, StationSeries> day = new TreeMap<Integer, StationSeries>(dataset.getDay(dayId));
+        int length = 0;
+        for (StationSeries series : day.values())
+            length += series.getLength();
+
+        int[] stationIds = new int[length];
+        int[] binIds = new int[length];
+        double[] averages = new double[length];
+        int[] sizes = new int[length];
+        int[] percIds = new int[length];
+        int i = 0;
+        for (StationSeries series : day.values()) {
+            for (int k = 0; k < series.getLength(); k++, i++) {
+                stationIds[i] = series.getStationId();
+                binIds[i] = BinUtil.getUniqueBinIdInAllDays(dayId, dataset.getBinsPerDay(), series.getBinId(k));
+                averages[i] = series.getAverage(k);
+                sizes[i] = series.getSize(k);
+                percIds[i] = series.getPercId(k);
+            }
+        }
+        predictor.update(dataset.getBinsPerDay(), stationIds, binIds, averages, sizes, percIds);
+    }
+
+    /**
+     * Costruisce la tabella dei risultati.
+     *
+     * @param predictors i predittori di un segmento (per i nomi)
+     * @param matrices matrici di confusione per ogni predittore, fold e finestra di predizione
+     * @param numTarget numero di valori che la variabile da predire può assumere
+     * @param segments numero di segmenti
+     * @return la tabella dei risultati
+     */
+    private String report(List<Predictor> predictors, PrimitiveConfusionMatrix[][][] matrices, int numTarget, int segments) {
+        int numFolds = matrices[0].length;
+        StringBuilder sb = new StringBuilder("Backtest (" + numFolds + " folds, test days " + firstTestDay + "-"
+                + (firstTestDay + numFolds - 1) + ", " + segments + " segments):\n");
+        sb.append("TEST_DAY\tPW");
+        for (Predictor predictor : predictors)
+            sb.append("\t").append(predictor.getClass().getSimpleName());
+        sb.append("\n");
+
+        // Accuracy of each fold
+        for (int f = 0; f < numFolds; f++) {
+            for (int h = 0; h < pws.length; h++) {
+                sb.append(firstTestDay + f).append("\t").append(pws[h]);
+                for (int p = 0; p < predictors.size(); p++)
+                    sb.append("\t").append(String.format("%.3f", matrices[p][f][h].getAccuracy()));
+                sb.append("\n");
+            }
+        }
+
+        // Merge the folds
+        PrimitiveConfusionMatrix[][] overall = new PrimitiveConfusionMatrix[predictors.size()][pws.length];
+        for (int p = 0; p < predictors.size(); p++) {
+            for (int h = 0; h < pws.length; h++) {
+                overall[p][h] = new PrimitiveConfusionMatrix(numTarget);
+                for (int f = 0; f < numFolds; f++)
+                    overall[p][h].merge(matrices[p][f][h]);
+            }
+        }
+        for (int h = 0; h < pws.length; h++) {
+            sb.append("All\t").append(pws[h]);
+            for (int p = 0; p < predictors.size(); p++)
+                sb.append("\t").append(String.format("%.3f", overall[p][h].getAccuracy()));
+            sb.append("\n");
+        }
+
+        // Overall confusion matrices
+        List<String> symbols = new ArrayList<String>();
+        for (int i = 0; i < numTarget; i++)
+            symbols.add("" + i);
+        for (int p = 0; p < predictors.size(); p++) {
+            for (int h = 0; h < pws.length; h++) {
+                sb.append("\n").append(predictors.get(p).getClass().getSimpleName()).append(", PW ").append(pws[h])
+                        .append(", all folds:\n");
+                sb.append(overall[p][h].toConfusionMatrix(symbols, "unknown"));
+                sb.append(String.format("Accuracy: %.3f, mean absolute error: %.3f\n",
+                        overall[p][h].getAccuracy(), overall[p][h].getMeanAbsoluteError()));
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,44 @@
+package mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Il Combiner aggrega lato Map le osservazioni inviate dal Mapper per ogni coppia (bike station, bin),
+ * riducendo i dati trasferiti al Reducer durante la fase di shuffle.<br>
+ * Per ogni dimensione <i>size</i> letta nel bin, il Combiner invia un'unica coppia con:
+ * <li><i>key</i>: la stessa chiave ricevuta dal Mapper (id del bike station e id del bin);
+ * <li><i>value:</i>: {@link ObservationWritable} con la somma delle biciclette disponibili, la dimensione
+ * 				del bike station e il numero di osservazioni aggregate.
+ * Il formato del value è lo stesso inviato dal Mapper, per cui il Reducer non distingue tra osservazioni
+ * singole e aggregati parziali e il risultato finale non dipende dall'esecuzione del Combiner.
+ *
+ * @author Armando Segatori
+ * @see SizeHistogram
+ * @see BikeMiBinReducer
+ */
+public class BikeMiBinCombiner extends Reducer<StationBinKey, ObservationWritable, StationBinKey, ObservationWritable>{
+
+	private SizeHistogram histogram = new SizeHistogram();
+
+	private ObservationWritable wObservation = new ObservationWritable();
+
+	@Override
+	public void reduce(StationBinKey key, Iterable<ObservationWritable> values, Context context)
+			throws IOException, InterruptedException{
+
+		// Build the partial histogram
+		histogram.clear();
+		for (ObservationWritable value : values)
+			histogram.add(value.getSize(), value.getCount(), value.getBikeSum());
+
+		// Write one pair<key, value> for each size
+		for (int i = 0; i < histogram.getNumSizes(); i++){
+			wObservation.set(histogram.getBikeSumAt(i), histogram.getSizeAt(i), histogram.getCountAt(i));
+			context.write(key, wObservation);
+		}
+
+	}
+
+}
@@ -6,17 +6,18 @@ import java.util.Date;
 import main.BikemiMain;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
-import org.apache.mahout.common.HadoopUtil;
-
 /**
  * Driver che si occupa di lanciare il Job MapReduce che permette di trasformare il dataset
  * in un formato adatto al training dei predittori implementati.
@@ -35,7 +36,17 @@ import org.apache.mahout.common.HadoopUtil;
  * <li> <i>percId</i>: etichetta della variabile da predire. Identificatore dell'intervallo in cui presente la percentuale 
  * 						da predire. {0, ... NT-1} dove NT (NUM_TARGET) è il numero di possibili valori che la variabile da predire 
  * 						può assumere.</li>
- * Il dataset trasformato è memorizzato in <code>SequenceFile</code> all'interno della cartella bin.
+ * Il dataset trasformato è memorizzato in <code>SequenceFile</code> all'interno della cartella bin, un file
+ * <code>part-r-NNNNN</code> per ogni Reducer. Le chiavi sono distribuite tra i Reducer in base al giorno e al 
+ * bike station (vedi {@link BikeMiBinPartitioner}). In alternativa il dataset può essere memorizzato in formato
+ * colonnare (vedi {@link ColumnarBinWriter}).<br>
+ * I file di input possono essere compressi: i file compressi con bzip2 sono suddivisi tra più Mapper
+ * (vedi {@link CompressedTextInputFormat}). I <code>SequenceFile</code> di output possono essere compressi a blocchi
+ * con un codec configurabile; il formato colonnare non è mai compresso, per poter essere mappato in memoria.<br>
+ * In modalità incrementale sono trasformati solo i giorni non ancora presenti nel dataset trasformato
+ * (vedi {@link IncrementalBinPlan}).<br>
+ * Le transazioni scartate, il numero di bin e la durata di ogni fase sono raccolti nei contatori {@link BinCounters}
+ * e restituiti in un {@link BinningSummary}.
  * 
  * @author Armando Segatori
  *
@@ -47,6 +58,21 @@ public class BikeMiBinDriver {
 	 */
 	public static final String SPLITTER_BIN = "\t";
 	
+	/**
+	 * Formato di output <code>SequenceFile</code> (default)
+	 */
+	public static final String SEQUENCE_FORMAT = "sequence";
+
+	/**
+	 * Formato di output colonnare (vedi {@link ColumnarBinWriter})
+	 */
+	public static final String COLUMNAR_FORMAT = "columnar";
+
+	/**
+	 * Nome del codec che disabilita la compressione del dataset trasformato
+	 */
+	public static final String NO_COMPRESSION = "none";
+
 	/**
 	 * Property per memorizzare il pattern di splitter per recuperare le informazioni dal dataset a trasformare
 	 */
@@ -58,6 +84,12 @@ public class BikeMiBinDriver {
 	 */
 	protected static final String START_DATE_PROPERTY = "start_date";
 	
+	/**
+	 * Property per memorizzare la data della prima osservazione da prendere in considerazione.
+	 * Se non specificata coincide con la data di inizio (vedi {@link IncrementalBinPlan}).
+	 */
+	protected static final String FIRST_DATE_PROPERTY = "first_date";
+	
 	/**
 	 * Property per memorizzare la data di fine.
 	 * Tutte le osservazioni successive alla data di fine non saranno prese in considerazione.
@@ -93,26 +125,52 @@ public class BikeMiBinDriver {
 	 * @param days numero di giorni consecutivi da considerare
 	 * @param interval dimensione del bin in millisecondi
 	 * @param numTarget numero di etichette che la variabile di uscita può assumere
+	 * @param numReducers numero di Reducer. Il dataset trasformato è memorizzato in un file per ogni Reducer
+	 * @param outputFormat formato del dataset trasformato: {@link #SEQUENCE_FORMAT} o {@link #COLUMNAR_FORMAT}.
+	 * 			Nel secondo caso, al termine del Job i <code>SequenceFile</code> sono convertiti in formato colonnare.
+	 * @param compression nome del codec (ad esempio <code>default</code>, <code>bzip2</code>, <code>snappy</code>) con cui
+	 * 			comprimere a blocchi i <code>SequenceFile</code> e l'output dei Mapper, oppure {@link #NO_COMPRESSION}
+	 * @param incremental <code>true</code> per trasformare solo i giorni non ancora trasformati (vedi {@link IncrementalBinPlan})
 	 * @param input directory di input
+	 * @return il riepilogo della trasformazione, memorizzato anche nel file {@link BinningSummary#SUMMARY_NAME}
+	 * 			della directory di output
 	 * @throws IOException
 	 * @throws InterruptedException
 	 * @throws ClassNotFoundException
 	 */
-	public static void runJob(String splitter, Date startDate, 
-			Integer days, Long interval, Integer numTarget, String input) 
-				throws IOException, InterruptedException, ClassNotFoundException{
+	public static BinningSummary runJob(String splitter, Date startDate, 
+			Integer days, Long interval, Integer numTarget, Integer numReducers, String outputFormat, String compression, boolean incremental, 
+			String input) throws IOException, InterruptedException, ClassNotFoundException{
 
 		// Get the end date
 		Date endDate = new Date(startDate.getTime() + (days * MILLS_IN_A_DAY));
 		
-		// Set all the parameter in the Configuration class
+		// Check which days have to be binned
+		BinningSummary summary = new BinningSummary("mapreduce");
+		long phaseStart = System.currentTimeMillis();
 		Configuration conf = new Configuration();
+		Path inputPath = new Path(input);
+		IncrementalBinPlan plan = IncrementalBinPlan.create(conf, getOutputPath(), inputPath, splitter,
+				startDate.getTime(), days, interval, numTarget, outputFormat, incremental);
+		summary.setPlan(plan);
+		if (plan.isUpToDate())
+			return summary;
+
+		// Set all the parameter in the Configuration class
 		conf.set(SPLITTER_PROPERTY, splitter);
 		conf.setLong(START_DATE_PROPERTY, startDate.getTime());
+		conf.setLong(FIRST_DATE_PROPERTY, startDate.getTime() + (plan.getFirstDay() * MILLS_IN_A_DAY));
 		conf.setLong(END_DATE_PROPERTY, endDate.getTime());
 		conf.setLong(INTERVAL_PROPERTY, interval);
 		conf.setInt(NUM_TARGET_PROPERTY, numTarget);
 
+		// Compress the map output
+		CompressionCodec codec = getCodec(conf, compression);
+		if (codec != null){
+			conf.setBoolean("mapred.compress.map.output", true);
+			conf.setClass("mapred.map.output.compression.codec", codec.getClass(), CompressionCodec.class);
+		}
+
 		// Create the Job
 		Job job = new Job(conf, "Bike Sharing MapReduce Job: " + input);
 		job.setJarByClass(BikeMiBinDriver.class);
@@ -122,35 +180,80 @@ public class BikeMiBinDriver {
 	    job.setOutputValueClass(Text.class);
 		
 	    // Set the outputs for the Map
-        job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(Text.class);
+        job.setMapOutputKeyClass(StationBinKey.class);
+        job.setMapOutputValueClass(ObservationWritable.class);
 	    
-        // Set the input and output path
-	    Path inputPath = new Path(input);
-
-	    FileInputFormat.addInputPath(job, inputPath);
-	    Path outPath = new Path(OUTPUT_PATH);
+        // Set the input and output path (only the files with observations in the new days in incremental mode)
+	    if (plan.isIncremental()){
+	    	for (FileStatus file : plan.getInputFiles())
+	    		FileInputFormat.addInputPath(job, file.getPath());
+	    }
+	    else
+	    	FileInputFormat.addInputPath(job, inputPath);
+	    Path outPath = plan.getTargetPath();
 	    FileOutputFormat.setOutputPath(job, outPath);
 	    
 	    // Delete previous results
-	    HadoopUtil.delete(conf, outPath);
+	    plan.prepare();
 	    
 	    // Set the input and the output format
-	    job.setInputFormatClass(TextInputFormat.class);
+	    job.setInputFormatClass(CompressedTextInputFormat.class);
 //	    job.setOutputFormatClass(TextOutputFormat.class);
 	    job.setOutputFormatClass(SequenceFileOutputFormat.class);
+	    if (codec != null){
+	    	FileOutputFormat.setCompressOutput(job, true);
+	    	FileOutputFormat.setOutputCompressorClass(job, codec.getClass());
+	    	SequenceFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);
+	    }
 	    
-	    // Set mapper and reducer class
+	    // Set mapper, combiner and reducer class
 	    job.setMapperClass(BikeMiBinMapper.class);
+	    job.setCombinerClass(BikeMiBinCombiner.class);
 	    job.setReducerClass(BikeMiBinReducer.class);
 
+	    // Set the partitioner and the number of reducers
+	    job.setPartitionerClass(BikeMiBinPartitioner.class);
+	    job.setNumReduceTasks(numReducers);
+
+	    phaseStart = summary.endPhase("plan", phaseStart);
+
 		// Launch the Job
 	    boolean succeeded = job.waitForCompletion(true);
 	    if (!succeeded) 
 	      throw new IllegalStateException("Job failed!");
+	    summary.addCounters(job.getCounters());
+	    phaseStart = summary.endPhase("job", phaseStart);
+
+	    // Convert the output to the columnar format
+	    if (COLUMNAR_FORMAT.equals(outputFormat)){
+	    	ColumnarBinWriter.convert(conf, outPath);
+	    	phaseStart = summary.endPhase("convert", phaseStart);
+	    }
+
+	    // Merge the new days into the binned dataset
+	    plan.commit();
+	    summary.endPhase("commit", phaseStart);
+	    summary.write(conf, getOutputPath());
+	    return summary;
 	    
 	}
 
+	/**
+	 * Ritorna il codec con cui comprimere il dataset trasformato.
+	 * 
+	 * @param conf configurazione di Hadoop
+	 * @param compression nome o classe del codec, oppure {@link #NO_COMPRESSION}
+	 * @return il codec, <code>null</code> se il dataset trasformato non deve essere compresso
+	 */
+	public static CompressionCodec getCodec(Configuration conf, String compression){
+		if (compression == null || compression.isEmpty() || NO_COMPRESSION.equals(compression))
+			return null;
+		CompressionCodec codec = new CompressionCodecFactory(conf).getCodecByName(compression);
+		if (codec == null)
+			throw new IllegalArgumentException("Unknown compression codec: " + compression);
+		return codec;
+	}
+
 	/**
 	 * Ritorla la directory di output
 	 * @return il percorso dove è stato memorizzato il dataset trasformato.
@@ -0,0 +1,556 @@
+package mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.mahout.math.function.LongProcedure;
+import org.apache.mahout.math.list.LongArrayList;
+import org.apache.mahout.math.map.OpenLongLongHashMap;
+
+import utility.BinUtil;
+
+/**
+ * Esegue la stessa trasformazione del dataset di {@link BikeMiBinDriver} all'interno della JVM corrente,
+ * senza lanciare un Job MapReduce. È pensato per le esecuzioni su un singolo nodo e per lo sviluppo, dove
+ * il costo di avvio del Job e dello shuffle su disco è maggiore di quello della trasformazione.<br>
+ * I file di input, eventualmente compressi, sono suddivisi in blocchi di {@link #CHUNK_SIZE} byte, letti in parallelo da un pool di thread.
+ * Ogni blocco è letto come farebbe il Mapper (vedi {@link ObservationParser}) e aggregato in map di tipi primitivi
+ * locali al thread, con chiave (bike station, bin, size) e valori (count, bikeSum). Al termine di ogni blocco le map
+ * locali sono fuse in map condivise suddivise in {@link #NUM_SHARDS} partizioni, ognuna protetta dal proprio lock.
+ * Infine le chiavi sono ordinate e per ogni coppia (bike station, bin) viene calcolata la transazione come fa
+ * {@link BikeMiBinReducer}.<br>
+ * Il risultato è scritto nella directory di output di {@link BikeMiBinDriver}, in un unico <code>SequenceFile</code>
+ * con lo stesso formato prodotto dal Job MapReduce o direttamente in formato colonnare (vedi {@link ColumnarBinWriter}).<br>
+ * Per memorizzare la chiave in un <code>long</code>, l'id del bike station deve essere minore di 2^19, l'id univoco
+ * del bin minore di 2^28 e la dimensione del bike station minore di 2^16: le transazioni con valori maggiori non
+ * sono prese in considerazione.<br>
+ * Come per il Job MapReduce, in modalità incrementale sono trasformati solo i nuovi giorni, leggendo solo i file
+ * di input con osservazioni nei nuovi giorni (vedi {@link IncrementalBinPlan}). Le transazioni scartate sono contate
+ * negli stessi contatori {@link BinCounters} del Job MapReduce.
+ *
+ * @author Armando Segatori
+ * @see BikeMiBinDriver
+ */
+public class BikeMiBinLocalRunner {
+
+	/**
+	 * Dimensione (in byte) dei blocchi in cui sono suddivisi i file di input
+	 */
+	private static final long CHUNK_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * Numero di partizioni delle map condivise
+	 */
+	private static final int NUM_SHARDS = 64;
+
+	/**
+	 * Millisecondi in un giorno.
+	 */
+	private static final long MILLS_IN_A_DAY = 86400000; //  24 (hors) * 60 (minutes) * 60 (seconds) * 1000 (milliseconds);
+
+	/**
+	 * Numero di bit della chiave utilizzati per la dimensione del bike station
+	 */
+	private static final int SIZE_BITS = 16;
+
+	/**
+	 * Numero di bit della chiave utilizzati per l'id univoco del bin
+	 */
+	private static final int BIN_BITS = 28;
+
+	/**
+	 * Numero di bit della chiave utilizzati per l'id del bike station
+	 */
+	private static final int STATION_BITS = 19;
+
+	/**
+	 * Nome del file di output, lo stesso scritto dal primo Reducer
+	 */
+	private static final String PART_FILE_NAME = "part-r-00000";
+
+	/**
+	 * Blocco di un file di input
+	 */
+	private static class Chunk {
+		private final Path file;
+		private final long start;
+		private final long end;
+
+		private Chunk(Path file, long start, long end){
+			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Map condivise tra i thread, suddivise in partizioni per ridurre la contesa sui lock.
+	 */
+	private static class ShardedBinMap {
+
+		private final OpenLongLongHashMap[] counts = new OpenLongLongHashMap[NUM_SHARDS];
+
+		private final OpenLongLongHashMap[] bikeSums = new OpenLongLongHashMap[NUM_SHARDS];
+
+		private ShardedBinMap(){
+			for (int i = 0; i < NUM_SHARDS; i++){
+				counts[i] = new OpenLongLongHashMap();
+				bikeSums[i] = new OpenLongLongHashMap();
+			}
+		}
+
+		/**
+		 * Fonde nelle map condivise le map locali di un thread.
+		 *
+		 * @param localCounts numero di osservazioni per ogni chiave
+		 * @param localBikeSums somma delle biciclette disponibili per ogni chiave
+		 */
+		private void merge(OpenLongLongHashMap localCounts, final OpenLongLongHashMap localBikeSums){
+			// Split the keys among the shards
+			final LongArrayList[] shardKeys = new LongArrayList[NUM_SHARDS];
+			for (int i = 0; i < NUM_SHARDS; i++)
+				shardKeys[i] = new LongArrayList();
+			localCounts.forEachKey(new LongProcedure(){
+				@Override
+				public boolean apply(long key) {
+					shardKeys[getShard(key)].add(key);
+					return true;
+				}
+			});
+
+			for (int i = 0; i < NUM_SHARDS; i++){
+				LongArrayList keys = shardKeys[i];
+				synchronized (counts[i]) {
+					for (int k = 0; k < keys.size(); k++){
+						long key = keys.getQuick(k);
+						long count = localCounts.get(key);
+						long bikeSum = localBikeSums.get(key);
+						counts[i].adjustOrPutValue(key, count, count);
+						bikeSums[i].adjustOrPutValue(key, bikeSum, bikeSum);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Ritorna la partizione di una chiave. Tutte le dimensioni di una coppia (bike station, bin)
+		 * sono memorizzate nella stessa partizione.
+		 *
+		 * @param key chiave
+		 * @return l'indice della partizione
+		 */
+		private static int getShard(long key){
+			long stationBin = key >>> SIZE_BITS;
+			return (int) ((stationBin ^ (stationBin >>> 32)) & Integer.MAX_VALUE) % NUM_SHARDS;
+		}
+	}
+
+	/**
+	 * Costruisce la chiave delle map.
+	 *
+	 * @param stationId id del bike station
+	 * @param binId id univoco del bin
+	 * @param size dimensione del bike station
+	 * @return la chiave, ordinata per bike station, bin e dimensione
+	 */
+	private static long getKey(int stationId, int binId, int size){
+		return ((long) stationId << (BIN_BITS + SIZE_BITS)) | ((long) binId << SIZE_BITS) | size;
+	}
+
+	/**
+	 * Controlla che i valori possano essere memorizzati nella chiave.
+	 *
+	 * @param stationId id del bike station
+	 * @param binId id univoco del bin
+	 * @param size dimensione del bike station
+	 * @return <code>true</code> se i valori possono essere memorizzati nella chiave
+	 */
+	private static boolean isValidKey(int stationId, int binId, int size){
+		return stationId >= 0 && stationId < (1 << STATION_BITS) && binId >= 0 && binId < (1 << BIN_BITS)
+				&& size < (1 << SIZE_BITS);
+	}
+
+	/**
+	 * Suddivide i file di input in blocchi. I file compressi con un codec che non supporta
+	 * la suddivisione in blocchi (ad esempio gzip) sono letti in un unico blocco.
+	 *
+	 * @param conf configurazione di Hadoop
+	 * @param files file di input
+	 * @return la lista dei blocchi da leggere
+	 */
+	private static List<Chunk> getChunks(Configuration conf, List<FileStatus> files){
+		CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for (FileStatus file : files){
+			CompressionCodec codec = codecs.getCodec(file.getPath());
+			if (codec != null && !(codec instanceof SplittableCompressionCodec)){
+				chunks.add(new Chunk(file.getPath(), 0, file.getLen()));
+				continue;
+			}
+			for (long start = 0; start < file.getLen(); start += CHUNK_SIZE)
+				chunks.add(new Chunk(file.getPath(), start, Math.min(start + CHUNK_SIZE, file.getLen())));
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Legge un blocco di un file di input, eventualmente compresso, e aggrega le osservazioni valide in map locali.
+	 * Le righe del blocco sono lette come fa il Job MapReduce (vedi {@link SplitLineReader}).
+	 *
+	 * @param fs filesystem dei file di input
+	 * @param conf configurazione di Hadoop
+	 * @param chunk blocco da leggere
+	 * @param parser parser delle transazioni
+	 * @param binMap map condivise in cui fondere le map locali
+	 * @param counters contatori {@link BinCounters} condivisi in cui sommare i contatori del blocco
+	 * @throws IOException
+	 */
+	private static void processChunk(FileSystem fs, Configuration conf, Chunk chunk,
+			ObservationParser parser, ShardedBinMap binMap, long[] counters) throws IOException{
+		long startMillis = System.currentTimeMillis();
+		OpenLongLongHashMap counts = new OpenLongLongHashMap();
+		OpenLongLongHashMap bikeSums = new OpenLongLongHashMap();
+		long[] localCounters = new long[counters.length];
+
+		SplitLineReader reader = new SplitLineReader(fs, conf, chunk.file, chunk.start, chunk.end);
+		try{
+			Text line = new Text();
+			while (reader.next(line)){
+				// Parse and check the transaction
+				if (!parser.parse(line.toString())){
+					localCounters[parser.getRejection().ordinal()]++;
+					continue;
+				}
+				if (!isValidKey(parser.getStationId(), parser.getBinId(), parser.getSize())){
+					localCounters[BinCounters.INVALID_KEYS.ordinal()]++;
+					continue;
+				}
+				localCounters[BinCounters.VALID_OBSERVATIONS.ordinal()]++;
+
+				long key = getKey(parser.getStationId(), parser.getBinId(), parser.getSize());
+				counts.adjustOrPutValue(key, 1, 1);
+				bikeSums.adjustOrPutValue(key, parser.getBike(), parser.getBike());
+			}
+		}finally{
+			reader.close();
+		}
+
+		binMap.merge(counts, bikeSums);
+
+		localCounters[BinCounters.MAP_TASK_MILLIS.ordinal()] = System.currentTimeMillis() - startMillis;
+		synchronized (counters) {
+			for (int i = 0; i < counters.length; i++)
+				counters[i] += localCounters[i];
+		}
+	}
+
+	/**
+	 * Raccoglie e ordina le chiavi di tutte le partizioni.
+	 *
+	 * @param binMap map con tutte le osservazioni aggregate
+	 * @return le chiavi, ordinate per bike station, bin e dimensione
+	 */
+	private static long[] getSortedKeys(ShardedBinMap binMap){
+		final LongArrayList allKeys = new LongArrayList();
+		for (int i = 0; i < NUM_SHARDS; i++){
+			binMap.counts[i].forEachKey(new LongProcedure(){
+				@Override
+				public boolean apply(long key) {
+					allKeys.add(key);
+					return true;
+				}
+			});
+		}
+		long[] keys = Arrays.copyOf(allKeys.elements(), allKeys.size());
+		Arrays.sort(keys);
+		return keys;
+	}
+
+	/**
+	 * Legge in parallelo tutti i blocchi dei file di input e aggrega le osservazioni valide.
+	 *
+	 * @param fs filesystem dei file di input
+	 * @param conf configurazione di Hadoop
+	 * @param files file di input
+	 * @param splitter pattern che identifica come separare le informazioni di ogni transazione
+	 * @param startDateMill data di inizio in millisecondi
+	 * @param firstDateMill data della prima osservazione da considerare in millisecondi
+	 * @param endDateMill data di fine in millisecondi
+	 * @param interval dimensione del bin in millisecondi
+	 * @param numThreads numero di thread utilizzati per leggere il dataset
+	 * @param summary riepilogo in cui sommare i contatori {@link BinCounters}
+	 * @return le map con tutte le osservazioni aggregate
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static ShardedBinMap read(final FileSystem fs, final Configuration conf, List<FileStatus> files,
+			final String splitter, final long startDateMill, final long firstDateMill, final long endDateMill,
+			final long interval, int numThreads, BinningSummary summary) throws IOException, InterruptedException{
+		final TimeZone timeZone = TimeZone.getDefault();
+		final ShardedBinMap binMap = new ShardedBinMap();
+		final long[] counters = new long[BinCounters.values().length];
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final Chunk chunk : getChunks(conf, files)){
+				futures.add(pool.submit(new Callable<Void>(){
+					@Override
+					public Void call() throws IOException {
+						ObservationParser parser = new ObservationParser(splitter, startDateMill, firstDateMill,
+								endDateMill, interval, timeZone);
+						processChunk(fs, conf, chunk, parser, binMap, counters);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> future : futures)
+				future.get();
+		}catch(ExecutionException e){
+			throw new IOException("Local binning failed", e.getCause());
+		}finally{
+			pool.shutdownNow();
+		}
+
+		for (BinCounters counter : BinCounters.values())
+			summary.increment(counter, counters[counter.ordinal()]);
+		return binMap;
+	}
+
+	/**
+	 * Scrive il dataset trasformato. Le chiavi sono ordinate per bike station, bin e dimensione:
+	 * per ogni coppia (bike station, bin) le dimensioni sono fuse in un {@link SizeHistogram}.
+	 *
+	 * @param fs filesystem di output
+	 * @param conf configurazione di Hadoop
+	 * @param outDir directory di output
+	 * @param binMap map con tutte le osservazioni aggregate
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param numTarget numero di etichette che la variabile di uscita può assumere
+	 * @param outputFormat formato del dataset trasformato
+	 * @param codec codec con cui comprimere a blocchi il <code>SequenceFile</code>, <code>null</code> per non comprimerlo
+	 * @param summary riepilogo in cui contare i bin scritti
+	 * @throws IOException
+	 */
+	private static void write(FileSystem fs, Configuration conf, Path outDir, ShardedBinMap binMap,
+			int binsPerDay, int numTarget, String outputFormat, CompressionCodec codec, BinningSummary summary) 
+				throws IOException{
+		long[] keys = getSortedKeys(binMap);
+
+		boolean columnar = BikeMiBinDriver.COLUMNAR_FORMAT.equals(outputFormat);
+		Path outPath = new Path(outDir, PART_FILE_NAME);
+		SequenceFile.Writer writer = columnar ? null : codec == null
+				? SequenceFile.createWriter(fs, conf, outPath, IntWritable.class, Text.class)
+				: SequenceFile.createWriter(fs, conf, outPath, IntWritable.class, Text.class, CompressionType.BLOCK, codec);
+		ColumnarBinWriter columnarWriter = columnar ? new ColumnarBinWriter(fs, outDir) : null;
+		try{
+			IntWritable wInt = new IntWritable();
+			Text wText = new Text();
+			SizeHistogram histogram = new SizeHistogram();
+			int k = 0;
+			while (k < keys.length){
+				// Merge all the sizes of the (station, bin) pair
+				long stationBin = keys[k] >>> SIZE_BITS;
+				histogram.clear();
+				for (; k < keys.length && (keys[k] >>> SIZE_BITS) == stationBin; k++){
+					int shard = ShardedBinMap.getShard(keys[k]);
+					histogram.add((int) (keys[k] & ((1 << SIZE_BITS) - 1)),
+							binMap.counts[shard].get(keys[k]), binMap.bikeSums[shard].get(keys[k]));
+				}
+
+				int id = (int) (stationBin >>> BIN_BITS);
+				int binId = (int) (stationBin & ((1 << BIN_BITS) - 1));
+
+				// Get the right size, sum and count
+				int modalIndex = histogram.getModalIndex();
+				int correctSize = histogram.getSizeAt(modalIndex);
+				summary.increment(BinCounters.BINS, 1);
+				if (histogram.getNumSizes() > 1){
+					summary.increment(BinCounters.SIZE_DISAGREEMENT_BINS, 1);
+					summary.increment(BinCounters.DISCARDED_SIZE_OBSERVATIONS,
+							histogram.getTotalCount() - histogram.getCountAt(modalIndex));
+				}
+				double count = histogram.getCountAt(modalIndex);
+				double sum = histogram.getBikeSumAt(modalIndex);
+
+				// Calculate average and the outcome variable
+				double average = sum / count;
+				int percId = BikeMiBinReducer.getPercId(average, correctSize, numTarget);
+
+				int dayId = BinUtil.getDayIdFromUniqueBinIdInAllDays(binsPerDay, binId);
+				int dailyBinId = BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, binId);
+				if (columnar){
+					columnarWriter.append(dayId, id, dailyBinId, average, correctSize, percId);
+				}
+				else{
+					wInt.set(dayId);
+					wText.set(BikeMiBinReducer.getBinnedValue(id, dailyBinId, average, correctSize, percId));
+					writer.append(wInt, wText);
+				}
+			}
+		}finally{
+			if (writer != null)
+				writer.close();
+			if (columnarWriter != null)
+				columnarWriter.close();
+		}
+	}
+
+	/**
+	 * Esegue la trasformazione del dataset all'interno della JVM corrente.
+	 * I parametri sono gli stessi di {@link BikeMiBinDriver#runJob}.
+	 *
+	 * @param splitter pattern che identifica come separare le informazioni di ogni transazione memorizzate nel dataset iniziale
+	 * @param startDate data di inizio
+	 * @param days numero di giorni consecutivi da considerare
+	 * @param interval dimensione del bin in millisecondi
+	 * @param numTarget numero di etichette che la variabile di uscita può assumere
+	 * @param numThreads numero di thread utilizzati per leggere il dataset
+	 * @param outputFormat formato del dataset trasformato: {@link BikeMiBinDriver#SEQUENCE_FORMAT} 
+	 * 			o {@link BikeMiBinDriver#COLUMNAR_FORMAT}
+	 * @param compression nome del codec con cui comprimere a blocchi il <code>SequenceFile</code>,
+	 * 			oppure {@link BikeMiBinDriver#NO_COMPRESSION}
+	 * @param incremental <code>true</code> per trasformare solo i giorni non ancora trasformati (vedi {@link IncrementalBinPlan})
+	 * @param input directory di input
+	 * @return il riepilogo della trasformazione, memorizzato anche nel file {@link BinningSummary#SUMMARY_NAME}
+	 * 			della directory di output
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static BinningSummary runJob(final String splitter, Date startDate,
+			Integer days, final Long interval, Integer numTarget, Integer numThreads, String outputFormat, String compression, boolean incremental, String input)
+				throws IOException, InterruptedException{
+
+		// Get the start and the end date
+		long startDateMill = startDate.getTime();
+		long endDateMill = startDateMill + (days * MILLS_IN_A_DAY);
+
+		Configuration conf = new Configuration();
+		Path inputPath = new Path(input);
+		FileSystem fs = FileSystem.get(inputPath.toUri(), conf);
+
+		// Check which days have to be binned
+		BinningSummary summary = new BinningSummary("local");
+		long phaseStart = System.currentTimeMillis();
+		IncrementalBinPlan plan = IncrementalBinPlan.create(conf, BikeMiBinDriver.getOutputPath(), inputPath,
+				splitter, startDateMill, days, interval, numTarget, outputFormat, incremental);
+		summary.setPlan(plan);
+		if (plan.isUpToDate())
+			return summary;
+		long firstDateMill = startDateMill + (plan.getFirstDay() * MILLS_IN_A_DAY);
+		Path outPath = plan.getTargetPath();
+		FileSystem outFs = FileSystem.get(outPath.toUri(), conf);
+
+		// Delete previous results
+		plan.prepare();
+
+		phaseStart = summary.endPhase("plan", phaseStart);
+
+		// Read all the chunks
+		ShardedBinMap binMap = read(fs, conf, plan.getInputFiles(), splitter, startDateMill, firstDateMill,
+				endDateMill, interval, numThreads, summary);
+		phaseStart = summary.endPhase("read", phaseStart);
+
+		// Write the results
+		int binsPerDay = (int) (MILLS_IN_A_DAY / interval);
+		write(outFs, conf, outPath, binMap, binsPerDay, numTarget, outputFormat,
+				BikeMiBinDriver.getCodec(conf, compression), summary);
+		summary.increment(BinCounters.REDUCE_TASK_MILLIS, System.currentTimeMillis() - phaseStart);
+		phaseStart = summary.endPhase("write", phaseStart);
+
+		// Merge the new days into the binned dataset
+		plan.commit();
+		summary.endPhase("commit", phaseStart);
+		summary.write(conf, BikeMiBinDriver.getOutputPath());
+		return summary;
+
+	}
+
+	/**
+	 * Legge tutto il dataset iniziale, come {@link #runJob}, ma invece di calcolare e scrivere le transazioni
+	 * restituisce le osservazioni aggregate per bike station, bin e dimensione del bike station. La tabella
+	 * permette di ricostruire le transazioni di ogni intervallo multiplo di <code>interval</code> e di ogni
+	 * numero di etichette leggendo il dataset iniziale una sola volta (vedi {@link main.ParameterSweep}).
+	 *
+	 * @param splitter pattern che identifica come separare le informazioni di ogni transazione memorizzate nel dataset iniziale
+	 * @param startDate data di inizio
+	 * @param days numero di giorni consecutivi da considerare
+	 * @param interval dimensione del bin in millisecondi
+	 * @param numThreads numero di thread utilizzati per leggere il dataset
+	 * @param input directory di input
+	 * @param summary riepilogo in cui contare le osservazioni lette e scartate e i bin con l'intervallo <code>interval</code>
+	 * @return le osservazioni aggregate
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static FineBinTable readFineBins(String splitter, Date startDate, int days, long interval,
+			int numThreads, String input, BinningSummary summary) throws IOException, InterruptedException{
+		long phaseStart = System.currentTimeMillis();
+		long startDateMill = startDate.getTime();
+		long endDateMill = startDateMill + (days * MILLS_IN_A_DAY);
+
+		Configuration conf = new Configuration();
+		Path inputPath = new Path(input);
+		FileSystem fs = FileSystem.get(inputPath.toUri(), conf);
+		List<FileStatus> files = Arrays.asList(IncrementalBinPlan.listInputFiles(fs, inputPath));
+
+		// Read all the chunks
+		ShardedBinMap binMap = read(fs, conf, files, splitter, startDateMill, startDateMill, endDateMill,
+				interval, numThreads, summary);
+		phaseStart = summary.endPhase("read", phaseStart);
+
+		// Copy the sorted keys and their values in primitive arrays
+		long[] keys = getSortedKeys(binMap);
+		int[] stationIds = new int[keys.length];
+		int[] binIds = new int[keys.length];
+		int[] sizes = new int[keys.length];
+		long[] counts = new long[keys.length];
+		long[] bikeSums = new long[keys.length];
+		SizeHistogram histogram = new SizeHistogram();
+		for (int k = 0; k < keys.length; k++){
+			int shard = ShardedBinMap.getShard(keys[k]);
+			stationIds[k] = (int) (keys[k] >>> (BIN_BITS + SIZE_BITS));
+			binIds[k] = (int) ((keys[k] >>> SIZE_BITS) & ((1 << BIN_BITS) - 1));
+			sizes[k] = (int) (keys[k] & ((1 << SIZE_BITS) - 1));
+			counts[k] = binMap.counts[shard].get(keys[k]);
+			bikeSums[k] = binMap.bikeSums[shard].get(keys[k]);
+
+			// Count the fine bins as the binning would do
+			if (k == 0 || (keys[k] >>> SIZE_BITS) != (keys[k-1] >>> SIZE_BITS))
+				histogram.clear();
+			histogram.add(sizes[k], counts[k], bikeSums[k]);
+			if (k == keys.length - 1 || (keys[k] >>> SIZE_BITS) != (keys[k+1] >>> SIZE_BITS)){
+				summary.increment(BinCounters.BINS, 1);
+				if (histogram.getNumSizes() > 1){
+					summary.increment(BinCounters.SIZE_DISAGREEMENT_BINS, 1);
+					summary.increment(BinCounters.DISCARDED_SIZE_OBSERVATIONS,
+							histogram.getTotalCount() - histogram.getCountAt(histogram.getModalIndex()));
+				}
+			}
+		}
+		summary.endPhase("sort", phaseStart);
+		return new FineBinTable(interval, stationIds, binIds, sizes, counts, bikeSums);
+	}
+
+}
@@ -1,135 +1,97 @@
 package mapreduce;
 
 import java.io.IOException;
-import java.util.regex.Pattern;
+import java.util.TimeZone;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
-import utility.DateUtil;
-
 /**
  * Il Mapper invia al Reducer le informazioni relative alla disponibilità delle bicilette e la dimensione
  * di una bike station per ogni bin.<br>
- * <li><i>key</i>: stringa in cui è memorizzato l'id del bike station e l'id del bin;
- * <li><i>value:</i>: stringa in cui è memorizzato il numero di biciclette disponibili e la dimensione del bike station. 
+ * <li><i>key</i>: {@link StationBinKey} con l'id del bike station e l'id del bin;
+ * <li><i>value:</i>: {@link ObservationWritable} con il numero di biciclette disponibili, la dimensione del bike station
+ * 				e il numero di osservazioni (sempre 1). Lo stesso formato è utilizzato da {@link BikeMiBinCombiner}
+ * 				per inviare gli aggregati parziali.
+ * La lettura e il controllo delle transazioni sono delegati a {@link ObservationParser}. Le transazioni scartate
+ * sono contate per motivo nei contatori {@link BinCounters}.
  * 
  * @author Armando Segatori
  *
  */
-public class BikeMiBinMapper extends Mapper<LongWritable, Text, Text, Text>{
+public class BikeMiBinMapper extends Mapper<LongWritable, Text, StationBinKey, ObservationWritable>{
 
 	private static final String DEFAULT_SPLITTER = " ";
 	
 	/**
-	 * Pattern da utilizzare per recuperare le informazioni dal dataset.
-	 */
-	private Pattern splitter;
-	
-	/**
-	 * Data di inizia (in millisecondi).
+	 * Parser delle transazioni del dataset.
 	 */
-	private long startDateMill;
-	
+	private ObservationParser parser;
+
 	/**
-	 * Data di fine (in millisecondi).
+	 * Valori dei contatori {@link BinCounters}, inviati ad Hadoop al termine del Mapper
 	 */
-	private long endDateMill;
-	
+	private final long[] counters = new long[BinCounters.values().length];
+
 	/**
-	 * Dimensione del bin (in millisecondi).
+	 * Istante di inizio del Mapper
 	 */
-	private long interval;
+	private long startMillis;
 
-	Text wTextKey = new Text();
-	Text wTextValue = new Text();
+	StationBinKey wKey = new StationBinKey();
+	ObservationWritable wObservation = new ObservationWritable();
 
-	
-	/**
-	 * Controlla che i valore di <i>bike</i> e <i>free</i> della specifica transazione siano validi.
-	 * 
-	 * @param bike numero di bicilette disponibili. Colonna <i>bike</i> del dataset.
-	 * @param free numero di stalli liberi. Colonna <i>free</i> del dataset.
-	 * @return <code>true</code> if values are valid, <code>false</code> otherwise.
-	 */
-	private boolean isValidObservation(int bike, int free){
-		int size = bike + free;
-		return (size > 0 && bike >= 0 && free >= 0);
-	}
-	
-	/**
-	 * Controlla che la data letta nella transazione sia valida, ossia
-	 * che si trovi all'interno della finestra temporale specificata da <code>start date</code>
-	 * e <code> end date</code>.
-	 * 
-	 * @param millDate la data da controllare in millisecondi
-	 * @return <code>true</code> if the date is valid, <code>false</code> otherwise.
-	 */
-	private boolean isValidTimestamp(long millDate){
-		return (millDate >= startDateMill && millDate < endDateMill);
-	}
-	
 	@Override
 	protected void map(LongWritable key, Text value, Context context) 
 			throws IOException, InterruptedException{
 
-		String[] values = splitter.split(value.toString());
-		int id = -1;
-		int bike = -1;
-		int free = -1;
-
-		try{ 
-			// Parse all data
-			id 	 = Integer.parseInt(values[0].trim());
-			bike = Integer.parseInt(values[1].trim());
-			free = Integer.parseInt(values[2].trim());
-		}catch(NumberFormatException e){
-			// If exception then return. 
-			// The transaction is not taken into account
+		// Parse and check the transaction. 
+		// If it is not valid then return: the transaction is not taken into account
+		if (!parser.parse(value.toString())){
+			counters[parser.getRejection().ordinal()]++;
 			return;
 		}
-
-		// Get the timestamp (in millisecond)
-		long millDate = DateUtil.stringIso8601ToDate(values[3].trim()).getTime();
-		
-		// Check date and the other info
-		if (!isValidTimestamp(millDate) || !isValidObservation(bike, free))
-			return;
-
-		// Normalize the start date
-		millDate -= startDateMill;
-		
-		// Calculate the station size
-		int size = bike + free;
-
-		// Calculate the bin id
-		int binId = (int) (millDate / interval);
+		counters[BinCounters.VALID_OBSERVATIONS.ordinal()]++;
 
 		// Set the key
-		wTextKey.set(id + BikeMiBinDriver.SPLITTER_BIN + binId);
-		// Set the values
-		wTextValue.set(bike + BikeMiBinDriver.SPLITTER_BIN + size);
+		wKey.set(parser.getStationId(), parser.getBinId());
+		// Set the values (a single observation)
+		wObservation.set(parser.getBike(), parser.getSize(), 1);
 
 		// Write the pair<key, value>
-		context.write(wTextKey, wTextValue);	
+		context.write(wKey, wObservation);	
 
 	}
 
 	@Override
 	protected void setup(Context context) throws IOException, InterruptedException {
 		super.setup(context);
+		startMillis = System.currentTimeMillis();
 		// Get the configuration of the Job
 		Configuration conf = context.getConfiguration();
 
-		// Get values from the configuration class and set the own variable
+		// Get values from the configuration class and create the parser
 		String pattern = conf.get(BikeMiBinDriver.SPLITTER_PROPERTY, DEFAULT_SPLITTER);
-		splitter = Pattern.compile(pattern);
-		startDateMill = conf.getLong(BikeMiBinDriver.START_DATE_PROPERTY, 0);
-		endDateMill = conf.getLong(BikeMiBinDriver.END_DATE_PROPERTY, 0);
-		interval = conf.getLong(BikeMiBinDriver.INTERVAL_PROPERTY, 1);
+		long startDateMill = conf.getLong(BikeMiBinDriver.START_DATE_PROPERTY, 0);
+		long firstDateMill = conf.getLong(BikeMiBinDriver.FIRST_DATE_PROPERTY, startDateMill);
+		long endDateMill = conf.getLong(BikeMiBinDriver.END_DATE_PROPERTY, 0);
+		long interval = conf.getLong(BikeMiBinDriver.INTERVAL_PROPERTY, 1);
+		parser = new ObservationParser(pattern, startDateMill, firstDateMill, endDateMill, interval,
+				TimeZone.getDefault());
+
+	}
 
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		super.cleanup(context);
+		// Update the Hadoop counters once per task
+		counters[BinCounters.MAP_TASK_MILLIS.ordinal()] += System.currentTimeMillis() - startMillis;
+		for (BinCounters counter : BinCounters.values()){
+			if (counters[counter.ordinal()] != 0)
+				context.getCounter(counter).increment(counters[counter.ordinal()]);
+		}
 	}
 
 }
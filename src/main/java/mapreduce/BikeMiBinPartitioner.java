@@ -0,0 +1,51 @@
+package mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import utility.BinUtil;
+
+/**
+ * Partitioner che assegna le chiavi ai Reducer in base al giorno e al bike station.<br>
+ * Tutti i bin di uno stesso bike station in uno stesso giorno sono elaborati dallo stesso Reducer,
+ * mentre giorni e bike station differenti sono distribuiti in modo uniforme tra tutti i Reducer
+ * configurati in {@link BikeMiBinDriver}.
+ *
+ * @author Armando Segatori
+ * @see BikeMiBinDriver
+ */
+public class BikeMiBinPartitioner extends Partitioner<StationBinKey, ObservationWritable> implements Configurable {
+
+	/**
+	 * Millisecondi in un giorno
+	 */
+	private static final long MILLS_IN_A_DAY = 86400000; //  24 (hors) * 60 (minutes) * 60 (seconds) * 1000 (milliseconds);
+
+	private Configuration conf;
+
+	/**
+	 * Numero di bins in un giorno.
+	 */
+	private int binsPerDay;
+
+	@Override
+	public int getPartition(StationBinKey key, ObservationWritable value, int numPartitions) {
+		int dayId = BinUtil.getDayIdFromUniqueBinIdInAllDays(binsPerDay, key.getBinId());
+		int hash = 31 * dayId + key.getStationId();
+		return (hash & Integer.MAX_VALUE) % numPartitions;
+	}
+
+	@Override
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		long interval = conf.getLong(BikeMiBinDriver.INTERVAL_PROPERTY, 0);
+		binsPerDay = (int) (MILLS_IN_A_DAY / interval);
+	}
+
+	@Override
+	public Configuration getConf() {
+		return conf;
+	}
+
+}
@@ -1,10 +1,6 @@
 package mapreduce;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map.Entry;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
@@ -23,23 +19,22 @@ import utility.BinUtil;
  * dati corrotti o malfunzionamenti dei sensori installati sui bike station. Ad esempio per un bike station le transazioni 
  * relative ad un determinato bin possono avere valori differenti per il campo <i>size</i>. Per questo motivo il Reducer 
  * calcola la dimensione del bike station con la stessa dimensione che ha la maggiore frequenza tra tutte le osservazioni lette 
- * in quel determinato bin. Solamente queste transazioni sono prese in considerazione per il calcolo della media.
+ * in quel determinato bin. Solamente queste transazioni sono prese in considerazione per il calcolo della media.<br>
+ * I valori ricevuti possono essere sia singole osservazioni del Mapper, sia aggregati parziali del Combiner: entrambi
+ * sono fusi in un {@link SizeHistogram} con un'unica lettura dei valori, senza memorizzarli. La memoria utilizzata 
+ * non dipende quindi dal numero di osservazioni lette nel bin.
  * 
  * @author Armando Segatori
  * @see BikeMiBinDriver
+ * @see BikeMiBinCombiner
  */
-public class BikeMiBinReducer extends Reducer<Text, Text, IntWritable, Text>{
+public class BikeMiBinReducer extends Reducer<StationBinKey, ObservationWritable, IntWritable, Text>{
 
 	/**
 	 * Millisecondi in un giorno
 	 */
 	private static final long MILLS_IN_A_DAY = 86400000; //  24 (hors) * 60 (minutes) * 60 (seconds) * 1000 (milliseconds);
 
-	/**
-	 * Soglia che definisce quando una percentuale appartiene ad un'etichetta piuttosto che ad un'altra
-	 */
-	private double numClassLabelTreshold;
-	
 	/**
 	 * Numero di valori che la variabile di uscita può assumere.
 	 */
@@ -50,129 +45,104 @@ public class BikeMiBinReducer extends Reducer<Text, Text, IntWritable, Text>{
 	 */
 	private int binsPerDay;
 
+	/**
+	 * Istogramma delle dimensioni lette nel bin corrente
+	 */
+	private SizeHistogram histogram = new SizeHistogram();
+
+	/**
+	 * Valori dei contatori {@link BinCounters}, inviati ad Hadoop al termine del Reducer
+	 */
+	private final long[] counters = new long[BinCounters.values().length];
+
+	/**
+	 * Istante di inizio del Reducer
+	 */
+	private long startMillis;
+
 	private IntWritable wInt = new IntWritable();
 	private Text wText = new Text();
 
 	/**
-	 * Recupera la dimensione del bike station. Per vari motivi, quali malfunzinamento
-	 * dei sensori installati sui singoli stalli del bike station o un errato invio
-	 * dei dati durante la rilevazione, il valore di <code>size</code> inviato dal mapper
-	 * può variare tra un'osservazione e l'altra. Il metodo restituisce la dimensione che ha
-	 * la frequenza massima.<br>
-	 * Ad esempio se per il determinato bin abbiamo 5 osservazioni del tipo:
-	 * <i>id, binId, bike, size<br></i>
-	 * 0, 0, 5, 20<br>
-	 * 0, 0, 10, 20<br>
-	 * 0, 0, 10, 19<br>
-	 * 0, 0, 10, 23<br>
-	 * 0, 0, 15, 20<br>
-	 * la dimensione dello stallo è 20, perché quella che ha massima frequenza.
+	 * Calcola l'etichetta della variabile da predire, ossia l'identificatore dell'intervallo in cui 
+	 * si trova la percentuale di biciclette disponibili.
 	 * 
-	 * @param values lista che contiene tutte le osservazioni lette dal Mapper {@link BikeMiBinMapper} 
-	 * 				per quel determinato bin e per quella determinata stazione.
-	 * @return la dimensione del bike station
-	 * @see {@link BikeMiBinMapper}
+	 * @param average valore medio delle biciclette disponibili nel bin
+	 * @param size dimensione del bike station
+	 * @param numTarget numero di valori che la variabile di uscita può assumere
+	 * @return l'etichetta della variabile da predire {0, ... NT-1}
 	 */
-	private int getBikeStationSize(List<Text> values){
-		// Store the frequency of each size read
-		HashMap<Integer, Integer> frequency = new HashMap<Integer, Integer>();
-		for (Text value : values){
-			// Index 0 --> bike 
-			// Index 1 --> size
-			int size = Integer.parseInt(value.toString().split(BikeMiBinDriver.SPLITTER_BIN)[1]); // Get size
-			if(frequency.containsKey(size)) 
-				frequency.put(size, frequency.get(size)+1); // Increment frequency
-			else 
-				frequency.put(size, 1);  
-		}
-
-		// Get the size with max frequency from the map
-		int correctSize = -1;
-		int maxFrequency = Integer.MIN_VALUE;
-		for (Entry<Integer, Integer> entry : frequency.entrySet()){
-			if (entry.getValue() >= maxFrequency){
-				correctSize = entry.getKey();
-				maxFrequency = entry.getValue();
-			}
-		}
-
-		return correctSize;
+	public static int getPercId(double average, int size, int numTarget){
+		// Threshold that defines when a percentage belongs to a label rather than another one
+		double numClassLabelTreshold = 1D / (double) numTarget;
+		if (average == size)
+			return numTarget - 1;
+		return (int)((average / size) / numClassLabelTreshold);
 	}
 
 	/**
-	 * Crea una lista dall'Iterable inviato al Reducer.
-	 *
-	 * @param values tutte le osservazioni lette dal Mapper {@link BikeMiBinMapper} 
-	 * 				per quel determinato bin e per quella determinata stazione.
-	 * @return lista che contiene tutte le osservazioni lette dal Mapper {@link BikeMiBinMapper} 
-	 * 				per quel determinato bin e per quella determinata stazione.
+	 * Costruisce il valore di una transazione del dataset trasformato (vedi {@link BikeMiBinDriver}).
 	 * 
-	 * @see {@link BikeMiBinMapper}
+	 * @param id id del bike station
+	 * @param dailyBinId id giornaliero del bin
+	 * @param average valore medio delle biciclette disponibili nel bin
+	 * @param size dimensione del bike station
+	 * @param percId etichetta della variabile da predire
+	 * @return la stringa da memorizzare nel dataset trasformato
 	 */
-	private List<Text> getListFromIterable(Iterable<Text> values){
-		List<Text> list = new ArrayList<Text>();
-		for (Text value : values) 
-			list.add(value);
-
-		return list;
-
+	public static String getBinnedValue(int id, int dailyBinId, double average, int size, int percId){
+		return id + BikeMiBinDriver.SPLITTER_BIN + dailyBinId + BikeMiBinDriver.SPLITTER_BIN
+				+ average + BikeMiBinDriver.SPLITTER_BIN + size + BikeMiBinDriver.SPLITTER_BIN + percId;
 	}
 
 	@Override
-	public void reduce(Text key, Iterable<Text> values, Context context) 
+	public void reduce(StationBinKey key, Iterable<ObservationWritable> values, Context context) 
 			throws IOException, InterruptedException{	
 
-		// get the key
-		String[] keyValues = key.toString().split(BikeMiBinDriver.SPLITTER_BIN);
-
-		int id = -1; // Get bike station id
-		int binId = -1; // Get the unique bin id
-		try{ 
-			id = Integer.parseInt(keyValues[0].trim());
-			binId = Integer.parseInt(keyValues[1].trim());
-		}catch(NumberFormatException e){
-			// If exception return Something goes wrong
+		int id = key.getStationId(); // Get bike station id
+		int binId = key.getBinId(); // Get the unique bin id
+		if (id < 0 || binId < 0){ // Something goes wrong
+			counters[BinCounters.INVALID_KEYS.ordinal()]++;
 			return;
 		}
 
-		// Get list from iterable
-		List<Text> valuesList = getListFromIterable(values);
+		// Merge observations and partial aggregates sent by the mapper and the combiner
+		// in a single pass. Only primitive values are copied out of the (reused) writable.
+		histogram.clear();
+		for (ObservationWritable value : values)
+			histogram.add(value.getSize(), value.getCount(), value.getBikeSum());
+
 		// Get the right size
-		int correctSize = getBikeStationSize(valuesList);
+		int modalIndex = histogram.getModalIndex();
+		int correctSize = histogram.getSizeAt(modalIndex);
 
 		// Get the day id
 		int dayId =  BinUtil.getDayIdFromUniqueBinIdInAllDays(binsPerDay, binId);
 		// Get the daily bin id
 		int dailyBinId = BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, binId); 	
 
-		// Calculate sum and count 
-		int size = 0;
-		double count = 0;
-		double sum = 0;
-		for (Text value : valuesList){
-			String[] currentValues = value.toString().split(BikeMiBinDriver.SPLITTER_BIN);
-			size = Integer.parseInt(currentValues[1].trim());
-			if (size == correctSize){
-				sum += Integer.parseInt(currentValues[0].trim());
-				count++;
-			}
+		// Count the observations discarded because of a different size
+		counters[BinCounters.BINS.ordinal()]++;
+		if (histogram.getNumSizes() > 1){
+			counters[BinCounters.SIZE_DISAGREEMENT_BINS.ordinal()]++;
+			counters[BinCounters.DISCARDED_SIZE_OBSERVATIONS.ordinal()] += 
+					histogram.getTotalCount() - histogram.getCountAt(modalIndex);
 		}
 
+		// Get sum and count of the observations with the right size
+		double count = histogram.getCountAt(modalIndex);
+		double sum = histogram.getBikeSumAt(modalIndex);
+
 		// Calculate average
-		double average = (double)sum / (double)count;
+		double average = sum / count;
 
 		// Calculate the outcome variable
-		int percId = -1;
-		if (average == correctSize)
-			percId = numTarget - 1;
-		else
-			percId = (int)((average / correctSize) / numClassLabelTreshold);
+		int percId = getPercId(average, correctSize, numTarget);
 
 		// Set the key (dayId)
 		wInt.set(dayId);
 		// Set the values
-		wText.set(id + BikeMiBinDriver.SPLITTER_BIN + dailyBinId + BikeMiBinDriver.SPLITTER_BIN
-				+ average + BikeMiBinDriver.SPLITTER_BIN + correctSize + BikeMiBinDriver.SPLITTER_BIN + percId);
+		wText.set(getBinnedValue(id, dailyBinId, average, correctSize, percId));
 
 		// Write the pair<key, values>
 		context.write(wInt, wText);
@@ -182,14 +152,25 @@ public class BikeMiBinReducer extends Reducer<Text, Text, IntWritable, Text>{
 	@Override
 	protected void setup(Context context) throws IOException, InterruptedException {
 		super.setup(context);
+		startMillis = System.currentTimeMillis();
 		// Get the configuration of the Job
 		Configuration conf = context.getConfiguration();
 
 		// Get values from the configuration class and set the own variable
 		numTarget = conf.getInt(BikeMiBinDriver.NUM_TARGET_PROPERTY, 2);
-		numClassLabelTreshold = 1D / (double) numTarget;
 		long interval = conf.getLong(BikeMiBinDriver.INTERVAL_PROPERTY, 0);
 		binsPerDay = (int) (MILLS_IN_A_DAY / interval);
 
 	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException, InterruptedException {
+		super.cleanup(context);
+		// Update the Hadoop counters once per task
+		counters[BinCounters.REDUCE_TASK_MILLIS.ordinal()] += System.currentTimeMillis() - startMillis;
+		for (BinCounters counter : BinCounters.values()){
+			if (counters[counter.ordinal()] != 0)
+				context.getCounter(counter).increment(counters[counter.ordinal()]);
+		}
+	}
 }
@@ -0,0 +1,242 @@
+package mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import main.BikemiMain;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.mahout.common.HadoopUtil;
+
+import prediction.AbstractPredictor;
+import prediction.HistoricMeanPredictor;
+import prediction.LastValuePredictor;
+import prediction.MahoutPredictor;
+import prediction.ModelFile;
+import prediction.Predictor;
+import prediction.SequenceFileBinnedReader;
+import prediction.SgdSettings;
+
+/**
+ * Driver che si occupa di lanciare il Job MapReduce che allena i modelli dei predittori a partire dal
+ * dataset trasformato da {@link BikeMiBinDriver}, senza leggere il dataset nella JVM del driver.<br>
+ * Il Mapper invia le transazioni del training set con chiave {@link StationBinKey}: le chiavi sono assegnate
+ * ai Reducer in base al solo bike station ({@link BikeMiTrainPartitioner}) e raggruppate in base al solo
+ * bike station ({@link StationBinKey.StationComparator}), mentre l'ordinamento considera anche il bin.
+ * Ogni Reducer riceve quindi la serie di un bike station già ordinata e allena il modello del bike station
+ * di ogni tipo (regressione logistica e medie storiche), come farebbe il predittore allenato localmente.<br>
+ * Le righe dei modelli scritte dai Reducer sono infine riunite in un {@link ModelFile} per ogni tipo di
+ * modello nella directory dei modelli: il driver carica solo i modelli (vedi {@link Predictor#load(Path)})
+ * e il test set (vedi {@link prediction.BinnedDataset#loadTest(Path, String, int, int, int)}).<br>
+ * Il dataset trasformato deve essere memorizzato in <code>SequenceFile</code>.
+ *
+ * @author Armando Segatori
+ * @see BikeMiTrainMapper
+ * @see BikeMiTrainReducer
+ */
+public class BikeMiTrainDriver {
+
+	/**
+	 * Property per memorizzare il numero di giorni considerati
+	 */
+	protected static final String DAYS_PROPERTY = "days";
+
+	/**
+	 * Property per memorizzare il numero di bins in un giorno
+	 */
+	protected static final String BINS_PER_DAY_PROPERTY = "bins_per_day";
+
+	/**
+	 * Property per memorizzare le finestre di predizione
+	 */
+	protected static final String PWS_PROPERTY = "pws";
+
+	/**
+	 * Directory di output del Job, con le righe dei modelli scritte dai Reducer
+	 */
+	private static final String OUTPUT_PATH = BikemiMain.ROOT_PATH + "train";
+
+	/**
+	 * Directory in cui sono memorizzati i modelli allenati
+	 */
+	private static final String MODEL_PATH = BikemiMain.ROOT_PATH + "models";
+
+	/**
+	 * Esegue il Job MapReduce e scrive un {@link ModelFile} per ogni tipo di modello.
+	 * Per maggiori dettagli sulla logica del Job leggere la javadoc relativa alla classe.
+	 *
+	 * @param days numero di giorni considerati: l'ultimo è il test set
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param numTarget numero di etichette che la variabile di uscita può assumere
+	 * @param pws finestre di predizione degli orizzonti
+	 * @param sgd parametri dell'allenamento SGD delle regressioni logistiche
+	 * @param numReducers numero di Reducer
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	public static void runJob(Integer days, Integer binsPerDay, Integer numTarget, int[] pws,
+			SgdSettings sgd, Integer numReducers) throws IOException, InterruptedException, ClassNotFoundException{
+
+		Configuration conf = new Configuration();
+		Path inputPath = BikeMiBinDriver.getOutputPath();
+		FileSystem fs = FileSystem.get(inputPath.toUri(), conf);
+		FileStatus[] columnar = fs.globStatus(new Path(inputPath, ColumnarBinWriter.FILE_PATTERN));
+		if (columnar != null && columnar.length > 0)
+			throw new IllegalArgumentException("The binned dataset must be stored in SequenceFiles: " + inputPath);
+
+		// Set all the parameter in the Configuration class
+		conf.set(BikeMiBinDriver.SPLITTER_PROPERTY, BikeMiBinDriver.SPLITTER_BIN);
+		conf.setInt(DAYS_PROPERTY, days);
+		conf.setInt(BINS_PER_DAY_PROPERTY, binsPerDay);
+		conf.setInt(BikeMiBinDriver.NUM_TARGET_PROPERTY, numTarget);
+		String[] pwValues = new String[pws.length];
+		for (int h = 0; h < pws.length; h++)
+			pwValues[h] = "" + pws[h];
+		conf.setStrings(PWS_PROPERTY, pwValues);
+		sgd.write(conf);
+
+		// Create the Job
+		Job job = new Job(conf, "Bike Sharing Training Job: " + inputPath);
+		job.setJarByClass(BikeMiTrainDriver.class);
+
+		// Set output for the Job
+		job.setOutputKeyClass(IntWritable.class);
+		job.setOutputValueClass(ModelRowWritable.class);
+
+		// Set the outputs for the Map
+		job.setMapOutputKeyClass(StationBinKey.class);
+		job.setMapOutputValueClass(BinRowWritable.class);
+
+		// Set the input (only the part files) and output path
+		FileInputFormat.addInputPath(job, new Path(inputPath, SequenceFileBinnedReader.PART_FILE_PATTERN));
+		Path outPath = getOutputPath();
+		FileOutputFormat.setOutputPath(job, outPath);
+
+		// Delete previous results
+		HadoopUtil.delete(conf, outPath);
+
+		// Set the input and the output format
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+		// Set mapper and reducer class
+		job.setMapperClass(BikeMiTrainMapper.class);
+		job.setReducerClass(BikeMiTrainReducer.class);
+
+		// Secondary sort: partition and group by bike station, sort by bike station and bin
+		job.setPartitionerClass(BikeMiTrainPartitioner.class);
+		job.setGroupingComparatorClass(StationBinKey.StationComparator.class);
+		job.setNumReduceTasks(numReducers);
+
+		// Launch the Job
+		boolean succeeded = job.waitForCompletion(true);
+		if (!succeeded)
+			throw new IllegalStateException("Job failed!");
+
+		// Collect the model rows and write a model file for each kind
+		Map<Integer, Map<Integer, double[]>> rows = readModelRows(conf, outPath);
+		for (AbstractPredictor trainer : createTrainers(numTarget, pws, sgd)){
+			Map<Integer, double[]> kindRows = rows.get(trainer.getModelKind());
+			if (kindRows == null)
+				kindRows = new HashMap<Integer, double[]>();
+			ModelFile.write(getModelPath(trainer.getModelKind()), trainer.getModelKind(), numTarget, pws, kindRows);
+		}
+
+	}
+
+	/**
+	 * Legge le righe dei modelli scritte dai Reducer.
+	 *
+	 * @param conf configurazione di Hadoop
+	 * @param dir directory di output del Job
+	 * @return per ogni tipo di modello la riga di valori di ogni bike station
+	 * @throws IOException
+	 */
+	private static Map<Integer, Map<Integer, double[]>> readModelRows(Configuration conf, Path dir) throws IOException{
+		Map<Integer, Map<Integer, double[]>> rows = new HashMap<Integer, Map<Integer, double[]>>();
+		FileSystem fs = FileSystem.get(dir.toUri(), conf);
+		FileStatus[] parts = fs.globStatus(new Path(dir, SequenceFileBinnedReader.PART_FILE_PATTERN));
+		if (parts == null)
+			return rows;
+
+		IntWritable key = new IntWritable();
+		ModelRowWritable value = new ModelRowWritable();
+		for (FileStatus part : parts){
+			SequenceFile.Reader reader = new SequenceFile.Reader(fs, part.getPath(), conf);
+			try{
+				while (reader.next(key, value)){
+					Map<Integer, double[]> kindRows = rows.get(value.getKind());
+					if (kindRows == null){
+						kindRows = new HashMap<Integer, double[]>();
+						rows.put(value.getKind(), kindRows);
+					}
+					kindRows.put(key.get(), value.getRow());
+				}
+			}finally{
+				reader.close();
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Crea un predittore per ogni tipo di modello, utilizzato dai Reducer per allenare i modelli dei bike station.
+	 * I predittori che condividono un tipo di modello (ad esempio {@link prediction.HistoricTrendPredictor})
+	 * caricano lo stesso file.
+	 *
+	 * @param numTarget numero di etichette che la variabile di uscita può assumere
+	 * @param pws finestre di predizione degli orizzonti
+	 * @param sgd parametri dell'allenamento SGD delle regressioni logistiche
+	 * @return la lista dei predittori
+	 */
+	static List<AbstractPredictor> createTrainers(int numTarget, int[] pws, SgdSettings sgd){
+		List<AbstractPredictor> trainers = new ArrayList<AbstractPredictor>();
+		trainers.add(new MahoutPredictor(numTarget, pws, 1, sgd));
+		trainers.add(new LastValuePredictor(numTarget, pws));
+		trainers.add(new HistoricMeanPredictor(numTarget, pws));
+		return trainers;
+	}
+
+	/**
+	 * @param conf configurazione del Job
+	 * @return le finestre di predizione degli orizzonti
+	 */
+	static int[] getPws(Configuration conf){
+		String[] values = conf.getStrings(PWS_PROPERTY);
+		int[] pws = new int[values.length];
+		for (int h = 0; h < values.length; h++)
+			pws[h] = Integer.parseInt(values[h].trim());
+		return pws;
+	}
+
+	/**
+	 * @param kind tipo del modello (vedi {@link ModelFile})
+	 * @return il file in cui è memorizzato il modello allenato del tipo
+	 */
+	public static Path getModelPath(int kind){
+		return new Path(MODEL_PATH, "model-" + kind);
+	}
+
+	/**
+	 * Ritorna la directory di output del Job
+	 * @return il percorso dove sono memorizzate le righe dei modelli scritte dai Reducer.
+	 */
+	public static Path getOutputPath(){
+		return new Path(OUTPUT_PATH);
+	}
+
+}
@@ -0,0 +1,76 @@
+package mapreduce;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import utility.BinUtil;
+
+/**
+ * Il Mapper legge il dataset trasformato da {@link BikeMiBinDriver} e invia al Reducer le transazioni
+ * del training set, ossia di tutti i giorni tranne l'ultimo.<br>
+ * <li><i>key</i>: {@link StationBinKey} con l'id del bike station e l'id univoco del bin in tutti i giorni;
+ * <li><i>value:</i>: {@link BinRowWritable} con il valore medio, la dimensione del bike station e l'etichetta.
+ * Le transazioni del test set sono scartate.
+ *
+ * @author Armando Segatori
+ * @see BikeMiTrainDriver
+ */
+public class BikeMiTrainMapper extends Mapper<IntWritable, Text, StationBinKey, BinRowWritable>{
+
+	/**
+	 * Pattern utilizzato per recuperare le informazioni dal dataset trasformato
+	 */
+	private Pattern splitter;
+
+	/**
+	 * Numero di giorni considerati: l'ultimo è il test set
+	 */
+	private int days;
+
+	/**
+	 * Numero di bins in un giorno.
+	 */
+	private int binsPerDay;
+
+	StationBinKey wKey = new StationBinKey();
+	BinRowWritable wRow = new BinRowWritable();
+
+	@Override
+	protected void map(IntWritable key, Text value, Context context)
+			throws IOException, InterruptedException{
+
+		// Skip the test set
+		int dayId = key.get();
+		if (BinUtil.isTestDay(dayId, days))
+			return;
+
+		String[] values = splitter.split(value.toString());
+		int stationId = Integer.parseInt(values[0]);
+		int dailyBinId = Integer.parseInt(values[1]);
+
+		// Set the key: the unique bin id sorts the bins of a station
+		wKey.set(stationId, BinUtil.getUniqueBinIdInAllDays(dayId, binsPerDay, dailyBinId));
+		// Set the values
+		wRow.set(Double.parseDouble(values[2]), Integer.parseInt(values[3]), Integer.parseInt(values[4]));
+
+		// Write the pair<key, value>
+		context.write(wKey, wRow);
+
+	}
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		super.setup(context);
+		// Get the configuration of the Job
+		Configuration conf = context.getConfiguration();
+		splitter = Pattern.compile(conf.get(BikeMiBinDriver.SPLITTER_PROPERTY, BikeMiBinDriver.SPLITTER_BIN));
+		days = conf.getInt(BikeMiTrainDriver.DAYS_PROPERTY, 0);
+		binsPerDay = conf.getInt(BikeMiTrainDriver.BINS_PER_DAY_PROPERTY, 0);
+	}
+
+}
@@ -0,0 +1,20 @@
+package mapreduce;
+
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Partitioner che assegna le chiavi ai Reducer in base al solo bike station.<br>
+ * Tutti i bin di un bike station sono elaborati dallo stesso Reducer, che può quindi allenare
+ * il modello del bike station sull'intera serie (vedi {@link BikeMiTrainReducer}).
+ *
+ * @author Armando Segatori
+ * @see BikeMiTrainDriver
+ */
+public class BikeMiTrainPartitioner extends Partitioner<StationBinKey, BinRowWritable> {
+
+	@Override
+	public int getPartition(StationBinKey key, BinRowWritable value, int numPartitions) {
+		return (key.getStationId() & Integer.MAX_VALUE) % numPartitions;
+	}
+
+}
@@ -0,0 +1,73 @@
+package mapreduce;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import prediction.AbstractPredictor;
+import prediction.SgdSettings;
+import prediction.StationSeries;
+
+/**
+ * Il Reducer riceve in un'unica chiamata tutte le transazioni del training set di un bike station, ordinate
+ * per bin id (il partitioner e il grouping comparator considerano solo il bike station, l'ordinamento
+ * anche il bin). Le transazioni sono memorizzate in una {@link StationSeries}, già ordinata, con cui
+ * è allenato il modello del bike station di ogni tipo di predittore (vedi {@link AbstractPredictor#trainStation(StationSeries, int)}).<br>
+ * Per ogni modello viene scritta la coppia:
+ * <li><i>key</i>: id del bike station;
+ * <li><i>value:</i>: {@link ModelRowWritable} con il tipo del modello e la sua riga di valori.
+ * La memoria utilizzata dipende solo dalla serie del bike station corrente.
+ *
+ * @author Armando Segatori
+ * @see BikeMiTrainDriver
+ */
+public class BikeMiTrainReducer extends Reducer<StationBinKey, BinRowWritable, IntWritable, ModelRowWritable>{
+
+	/**
+	 * Numero di bins in un giorno.
+	 */
+	private int binsPerDay;
+
+	/**
+	 * Un predittore per ogni tipo di modello, utilizzati solo per allenare i modelli dei bike station
+	 */
+	private List<AbstractPredictor> trainers;
+
+	private IntWritable wInt = new IntWritable();
+	private ModelRowWritable wRow = new ModelRowWritable();
+
+	@Override
+	protected void reduce(StationBinKey key, Iterable<BinRowWritable> values, Context context)
+			throws IOException, InterruptedException{
+
+		// Read the series: the key holds the bin id of the current value
+		StationSeries series = new StationSeries(key.getStationId());
+		for (BinRowWritable row : values)
+			series.add(key.getBinId(), row.getAverage(), row.getSize(), row.getPercId());
+		series.sort(); // already sorted: only build the index
+
+		// Train and write the model of each predictor
+		wInt.set(series.getStationId());
+		for (AbstractPredictor trainer : trainers){
+			double[] row = trainer.trainStation(series, binsPerDay);
+			if (row == null) // no model
+				continue;
+			wRow.set(trainer.getModelKind(), row);
+			context.write(wInt, wRow);
+		}
+	}
+
+	@Override
+	protected void setup(Context context) throws IOException, InterruptedException {
+		super.setup(context);
+		// Get the configuration of the Job
+		Configuration conf = context.getConfiguration();
+		binsPerDay = conf.getInt(BikeMiTrainDriver.BINS_PER_DAY_PROPERTY, 0);
+		trainers = BikeMiTrainDriver.createTrainers(conf.getInt(BikeMiBinDriver.NUM_TARGET_PROPERTY, 0),
+				BikeMiTrainDriver.getPws(conf), SgdSettings.read(conf));
+	}
+
+}
@@ -0,0 +1,68 @@
+package mapreduce;
+
+/**
+ * Contatori della trasformazione del dataset, utilizzati come contatori di Hadoop dal Job MapReduce
+ * e calcolati allo stesso modo da {@link BikeMiBinLocalRunner}. I valori sono raccolti in {@link BinningSummary}.
+ *
+ * @author Armando Segatori
+ * @see BinningSummary
+ */
+public enum BinCounters {
+
+	/**
+	 * Transazioni con meno di 4 campi o con valori non numerici
+	 */
+	MALFORMED_ROWS,
+
+	/**
+	 * Transazioni con timestamp al di fuori della finestra temporale
+	 */
+	OUT_OF_WINDOW_ROWS,
+
+	/**
+	 * Transazioni dei giorni già trasformati, lette di nuovo in modalità incrementale (vedi {@link IncrementalBinPlan}).
+	 * Non sono considerate transazioni scartate (vedi {@link BinningSummary#getRejectedRows()}).
+	 */
+	ALREADY_BINNED_ROWS,
+
+	/**
+	 * Transazioni con valori di <i>bike</i> e <i>free</i> non validi
+	 */
+	INVALID_OBSERVATIONS,
+
+	/**
+	 * Osservazioni con id del bike station o del bin non validi
+	 */
+	INVALID_KEYS,
+
+	/**
+	 * Osservazioni valide
+	 */
+	VALID_OBSERVATIONS,
+
+	/**
+	 * Transazioni scritte nel dataset trasformato (una per bike station e bin)
+	 */
+	BINS,
+
+	/**
+	 * Bin in cui sono state lette osservazioni con dimensioni differenti del bike station
+	 */
+	SIZE_DISAGREEMENT_BINS,
+
+	/**
+	 * Osservazioni scartate perché la dimensione del bike station non è quella più frequente nel bin
+	 */
+	DISCARDED_SIZE_OBSERVATIONS,
+
+	/**
+	 * Somma delle durate dei Mapper (o dei thread di lettura) in millisecondi
+	 */
+	MAP_TASK_MILLIS,
+
+	/**
+	 * Somma delle durate dei Reducer (o della scrittura) in millisecondi
+	 */
+	REDUCE_TASK_MILLIS
+
+}
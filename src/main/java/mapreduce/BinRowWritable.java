@@ -0,0 +1,73 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Valore inviato dal Mapper al Reducer di {@link BikeMiTrainDriver}. Rappresenta una transazione del dataset
+ * trasformato, senza il bike station e il bin che sono memorizzati nella chiave {@link StationBinKey}:
+ * <li><i>average</i>: valore medio delle biciclette disponibili nel bin;</li>
+ * <li><i>size</i>: dimensione del bike station;</li>
+ * <li><i>percId</i>: etichetta della variabile da predire.</li>
+ * Il valore medio è serializzato come float, con la stessa precisione con cui è memorizzato
+ * in {@link prediction.StationSeries}; gli interi con codifica a lunghezza variabile.
+ *
+ * @author Armando Segatori
+ * @see BikeMiTrainMapper
+ */
+public class BinRowWritable implements Writable {
+
+	private float average;
+
+	private int size;
+
+	private int percId;
+
+	/**
+	 * Costruttore di default, utilizzato da Hadoop durante la deserializzazione
+	 */
+	public BinRowWritable(){
+	}
+
+	public void set(double average, int size, int percId){
+		this.average = (float) average;
+		this.size = size;
+		this.percId = percId;
+	}
+
+	public float getAverage() {
+		return average;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getPercId() {
+		return percId;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeFloat(average);
+		WritableUtils.writeVInt(out, size);
+		WritableUtils.writeVInt(out, percId);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		average = in.readFloat();
+		size = WritableUtils.readVInt(in);
+		percId = WritableUtils.readVInt(in);
+	}
+
+	@Override
+	public String toString() {
+		return average + BikeMiBinDriver.SPLITTER_BIN + size + BikeMiBinDriver.SPLITTER_BIN + percId;
+	}
+
+}
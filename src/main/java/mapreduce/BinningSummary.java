@@ -0,0 +1,188 @@
+package mapreduce;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+
+/**
+ * Riepilogo di una trasformazione del dataset: i contatori {@link BinCounters}, alcune metriche derivate
+ * (osservazioni per bin, percentuale di bin con dimensioni differenti, percentuale di transazioni scartate)
+ * e la durata di ogni fase.<br>
+ * Il riepilogo è stampato da {@link main.BikemiMain} e memorizzato nel file {@link #SUMMARY_NAME}
+ * della directory di output in formato properties, per poter essere letto da altri strumenti.
+ *
+ * @author Armando Segatori
+ * @see BinCounters
+ */
+public class BinningSummary {
+
+	/**
+	 * Nome del file in cui è memorizzato il riepilogo
+	 */
+	public static final String SUMMARY_NAME = "_summary";
+
+	/**
+	 * Motore utilizzato per la trasformazione
+	 */
+	private final String engine;
+
+	/**
+	 * Modalità della trasformazione: <code>full</code>, <code>incremental</code> o <code>up-to-date</code>
+	 */
+	private String mode = "full";
+
+	private final Map<BinCounters, Long> counters = new EnumMap<BinCounters, Long>(BinCounters.class);
+
+	/**
+	 * Durata di ogni fase in millisecondi, nell'ordine di esecuzione
+	 */
+	private final Map<String, Long> phaseMillis = new LinkedHashMap<String, Long>();
+
+	/**
+	 * Costruttore
+	 *
+	 * @param engine motore utilizzato per la trasformazione
+	 */
+	public BinningSummary(String engine){
+		this.engine = engine;
+		for (BinCounters counter : BinCounters.values())
+			counters.put(counter, 0L);
+	}
+
+	/**
+	 * Imposta la modalità della trasformazione a partire dal piano.
+	 *
+	 * @param plan il piano della trasformazione
+	 */
+	public void setPlan(IncrementalBinPlan plan){
+		mode = plan.isUpToDate() ? "up-to-date" : plan.isIncremental() ? "incremental" : "full";
+	}
+
+	/**
+	 * Incrementa un contatore.
+	 *
+	 * @param counter il contatore
+	 * @param value l'incremento
+	 */
+	public void increment(BinCounters counter, long value){
+		counters.put(counter, counters.get(counter) + value);
+	}
+
+	/**
+	 * Copia i valori dei contatori di un Job MapReduce.
+	 *
+	 * @param jobCounters contatori del Job
+	 */
+	public void addCounters(Counters jobCounters){
+		for (BinCounters counter : BinCounters.values())
+			increment(counter, jobCounters.findCounter(counter).getValue());
+	}
+
+	/**
+	 * @param counter il contatore
+	 * @return il valore del contatore
+	 */
+	public long getCounter(BinCounters counter){
+		return counters.get(counter);
+	}
+
+	/**
+	 * Memorizza la durata di una fase.
+	 *
+	 * @param phase nome della fase
+	 * @param startMillis istante di inizio della fase (vedi <code>System.currentTimeMillis()</code>)
+	 * @return l'istante di fine della fase, da utilizzare come inizio della fase successiva
+	 */
+	public long endPhase(String phase, long startMillis){
+		long now = System.currentTimeMillis();
+		phaseMillis.put(phase, now - startMillis);
+		return now;
+	}
+
+	/**
+	 * @return il numero di transazioni scartate prima del calcolo dei bin. Le transazioni dei giorni già
+	 * 			trasformati, lette di nuovo in modalità incrementale, non sono considerate scartate.
+	 */
+	public long getRejectedRows(){
+		return getCounter(BinCounters.MALFORMED_ROWS) + getCounter(BinCounters.OUT_OF_WINDOW_ROWS)
+				+ getCounter(BinCounters.INVALID_OBSERVATIONS) + getCounter(BinCounters.INVALID_KEYS);
+	}
+
+	/**
+	 * @return la percentuale di transazioni scartate sul totale delle transazioni lette
+	 */
+	public double getRejectedRate(){
+		return percentage(getRejectedRows(), getRejectedRows() + getCounter(BinCounters.VALID_OBSERVATIONS));
+	}
+
+	/**
+	 * @return il numero medio di osservazioni valide per bin
+	 */
+	public double getObservationsPerBin(){
+		long bins = getCounter(BinCounters.BINS);
+		return bins == 0 ? 0 : (double) getCounter(BinCounters.VALID_OBSERVATIONS) / bins;
+	}
+
+	/**
+	 * @return la percentuale di bin con dimensioni differenti del bike station
+	 */
+	public double getSizeDisagreementRate(){
+		return percentage(getCounter(BinCounters.SIZE_DISAGREEMENT_BINS), getCounter(BinCounters.BINS));
+	}
+
+	private static double percentage(long value, long total){
+		return total == 0 ? 0 : 100D * value / total;
+	}
+
+	/**
+	 * Scrive il riepilogo nel file {@link #SUMMARY_NAME} di una directory.
+	 *
+	 * @param conf configurazione di Hadoop
+	 * @param dir directory di output
+	 * @throws IOException
+	 */
+	public void write(Configuration conf, Path dir) throws IOException{
+		Properties summary = new Properties();
+		summary.setProperty("engine", engine);
+		summary.setProperty("mode", mode);
+		for (Map.Entry<BinCounters, Long> entry : counters.entrySet())
+			summary.setProperty("counter." + entry.getKey().name(), "" + entry.getValue());
+		summary.setProperty("rejected_rows", "" + getRejectedRows());
+		summary.setProperty("rejected_rate", "" + getRejectedRate());
+		summary.setProperty("observations_per_bin", "" + getObservationsPerBin());
+		summary.setProperty("size_disagreement_rate", "" + getSizeDisagreementRate());
+		for (Map.Entry<String, Long> entry : phaseMillis.entrySet())
+			summary.setProperty("phase." + entry.getKey() + ".millis", "" + entry.getValue());
+
+		FileSystem fs = FileSystem.get(dir.toUri(), conf);
+		fs.mkdirs(dir);
+		OutputStream out = fs.create(new Path(dir, SUMMARY_NAME), true);
+		try{
+			summary.store(out, "Binning summary");
+		}finally{
+			out.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Binning (" + engine + ", " + mode + "):\n");
+		for (Map.Entry<BinCounters, Long> entry : counters.entrySet())
+			sb.append("\t").append(entry.getKey().name()).append(": ").append(entry.getValue()).append("\n");
+		sb.append(String.format("\tRejected rows: %d (%.3f%%)\n", getRejectedRows(), getRejectedRate()));
+		sb.append(String.format("\tObservations per bin: %.3f\n", getObservationsPerBin()));
+		sb.append(String.format("\tSize disagreement rate: %.3f%%\n", getSizeDisagreementRate()));
+		for (Map.Entry<String, Long> entry : phaseMillis.entrySet())
+			sb.append("\tPhase ").append(entry.getKey()).append(": ").append(entry.getValue()).append(" ms\n");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,228 @@
+package mapreduce;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Scrive il dataset trasformato in formato colonnare, alternativo al <code>SequenceFile</code>.<br>
+ * Ogni file <code>columnar-NNNNN</code> contiene un piccolo header seguito dalle colonne del dataset
+ * memorizzate come array paralleli di tipi primitivi (big-endian):
+ * <li><i>header</i>: {@link #MAGIC} (int), {@link #VERSION} (int), numero di transazioni N (int);</li>
+ * <li><i>dayId</i>: N int;</li>
+ * <li><i>stationId</i>: N int;</li>
+ * <li><i>dailyBinId</i>: N int;</li>
+ * <li><i>average</i>: N double;</li>
+ * <li><i>size</i>: N int;</li>
+ * <li><i>percId</i>: N int.</li>
+ * La posizione di ogni valore è quindi calcolabile direttamente dal numero di transazioni e il file può essere
+ * mappato in memoria e letto senza alcuna conversione (vedi {@link prediction.ColumnarBinnedReader}).
+ * Le transazioni sono memorizzate in memoria fino alla chiusura del writer; un nuovo file è creato ogni
+ * {@link #MAX_ROWS_PER_FILE} transazioni, in modo che ogni file possa essere mappato con un'unica chiamata.
+ *
+ * @author Armando Segatori
+ * @see BikeMiBinDriver
+ */
+public class ColumnarBinWriter implements Closeable {
+
+	/**
+	 * Identificatore del formato ("BKMC")
+	 */
+	public static final int MAGIC = 0x424B4D43;
+
+	/**
+	 * Versione del formato
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Dimensione dell'header in byte
+	 */
+	public static final int HEADER_SIZE = 12;
+
+	/**
+	 * Dimensione di una transazione in byte
+	 */
+	public static final int ROW_SIZE = 5 * 4 + 8;
+
+	/**
+	 * Prefisso dei file in formato colonnare
+	 */
+	public static final String FILE_PREFIX = "columnar-";
+
+	/**
+	 * Pattern dei file in formato colonnare
+	 */
+	public static final String FILE_PATTERN = FILE_PREFIX + "*";
+
+	/**
+	 * Numero massimo di transazioni in un file
+	 */
+	public static final int MAX_ROWS_PER_FILE = (Integer.MAX_VALUE - HEADER_SIZE) / ROW_SIZE;
+
+	/**
+	 * Capacità iniziale delle colonne
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final FileSystem fs;
+
+	private final Path dir;
+
+	/**
+	 * Indice del prossimo file da scrivere
+	 */
+	private int nextFile;
+
+	private int numRows = 0;
+
+	private int[] dayIds = new int[INITIAL_CAPACITY];
+
+	private int[] stationIds = new int[INITIAL_CAPACITY];
+
+	private int[] dailyBinIds = new int[INITIAL_CAPACITY];
+
+	private double[] averages = new double[INITIAL_CAPACITY];
+
+	private int[] sizes = new int[INITIAL_CAPACITY];
+
+	private int[] percIds = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Costruttore. I file già presenti nella directory di output non sono sovrascritti: 
+	 * i nuovi file sono numerati a partire dal primo indice libero.
+	 *
+	 * @param fs filesystem di output
+	 * @param dir directory di output
+	 * @throws IOException
+	 */
+	public ColumnarBinWriter(FileSystem fs, Path dir) throws IOException{
+		this.fs = fs;
+		this.dir = dir;
+		FileStatus[] existing = fs.globStatus(new Path(dir, FILE_PATTERN));
+		this.nextFile = existing == null ? 0 : existing.length;
+	}
+
+	/**
+	 * Aggiunge una transazione al dataset.
+	 *
+	 * @param dayId id del giorno
+	 * @param stationId id del bike station
+	 * @param dailyBinId id giornaliero del bin
+	 * @param average valore medio delle biciclette disponibili
+	 * @param size dimensione del bike station
+	 * @param percId etichetta della variabile da predire
+	 * @throws IOException
+	 */
+	public void append(int dayId, int stationId, int dailyBinId, double average, int size, int percId) throws IOException{
+		if (numRows == MAX_ROWS_PER_FILE)
+			flush();
+
+		if (numRows == dayIds.length){
+			int capacity = (int) Math.min((long) dayIds.length * 2, MAX_ROWS_PER_FILE);
+			dayIds = Arrays.copyOf(dayIds, capacity);
+			stationIds = Arrays.copyOf(stationIds, capacity);
+			dailyBinIds = Arrays.copyOf(dailyBinIds, capacity);
+			averages = Arrays.copyOf(averages, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			percIds = Arrays.copyOf(percIds, capacity);
+		}
+
+		dayIds[numRows] = dayId;
+		stationIds[numRows] = stationId;
+		dailyBinIds[numRows] = dailyBinId;
+		averages[numRows] = average;
+		sizes[numRows] = size;
+		percIds[numRows] = percId;
+		numRows++;
+	}
+
+	/**
+	 * Scrive su file le transazioni memorizzate.
+	 *
+	 * @throws IOException
+	 */
+	private void flush() throws IOException{
+		Path file = new Path(dir, String.format("%s%05d", FILE_PREFIX, nextFile++));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fs.create(file, true)));
+		try{
+			// Header
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numRows);
+
+			// Columns
+			for (int i = 0; i < numRows; i++)
+				out.writeInt(dayIds[i]);
+			for (int i = 0; i < numRows; i++)
+				out.writeInt(stationIds[i]);
+			for (int i = 0; i < numRows; i++)
+				out.writeInt(dailyBinIds[i]);
+			for (int i = 0; i < numRows; i++)
+				out.writeDouble(averages[i]);
+			for (int i = 0; i < numRows; i++)
+				out.writeInt(sizes[i]);
+			for (int i = 0; i < numRows; i++)
+				out.writeInt(percIds[i]);
+		}finally{
+			out.close();
+		}
+		numRows = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (numRows > 0)
+			flush();
+	}
+
+	/**
+	 * Converte in formato colonnare il dataset trasformato memorizzato nei <code>SequenceFile</code>
+	 * di una directory. Al termine della conversione i <code>SequenceFile</code> sono cancellati.
+	 *
+	 * @param conf configurazione di Hadoop
+	 * @param dir directory in cui è memorizzato il dataset trasformato
+	 * @throws IOException
+	 */
+	public static void convert(Configuration conf, Path dir) throws IOException{
+		FileSystem fs = FileSystem.get(dir.toUri(), conf);
+		FileStatus[] parts = fs.globStatus(new Path(dir, "part-*"));
+		if (parts == null)
+			return;
+
+		ColumnarBinWriter writer = new ColumnarBinWriter(fs, dir);
+		try{
+			IntWritable key = new IntWritable();
+			Text value = new Text();
+			for (FileStatus part : parts){
+				SequenceFile.Reader reader = new SequenceFile.Reader(fs, part.getPath(), conf);
+				try{
+					while (reader.next(key, value)){
+						String[] values = value.toString().split(BikeMiBinDriver.SPLITTER_BIN);
+						writer.append(key.get(), Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+								Double.parseDouble(values[2]), Integer.parseInt(values[3]), Integer.parseInt(values[4]));
+					}
+				}finally{
+					reader.close();
+				}
+			}
+		}finally{
+			writer.close();
+		}
+
+		// Delete the sequence files
+		for (FileStatus part : parts)
+			fs.delete(part.getPath(), false);
+	}
+
+}
@@ -0,0 +1,88 @@
+package mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+
+/**
+ * <code>TextInputFormat</code> che suddivide in blocchi anche i file compressi con un codec che lo supporta
+ * (<code>SplittableCompressionCodec</code>, ad esempio bzip2). Il <code>TextInputFormat</code> di Hadoop 1
+ * legge ogni file compresso con un unico Mapper.<br>
+ * Le righe di ogni blocco sono lette da {@link SplitLineReader}.
+ *
+ * @author Armando Segatori
+ * @see BikeMiBinDriver
+ */
+public class CompressedTextInputFormat extends TextInputFormat {
+
+	@Override
+	public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+		return new SplitLineRecordReader();
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path file) {
+		CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+		return codec == null || codec instanceof SplittableCompressionCodec;
+	}
+
+	/**
+	 * <code>RecordReader</code> che restituisce le righe di un blocco: la chiave è la posizione della riga
+	 * nel file non compresso.
+	 */
+	private static class SplitLineRecordReader extends RecordReader<LongWritable, Text> {
+
+		private SplitLineReader reader;
+
+		private final LongWritable key = new LongWritable();
+
+		private final Text value = new Text();
+
+		@Override
+		public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+			FileSplit split = (FileSplit) genericSplit;
+			Path file = split.getPath();
+			reader = new SplitLineReader(file.getFileSystem(context.getConfiguration()), context.getConfiguration(),
+					file, split.getStart(), split.getStart() + split.getLength());
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException {
+			key.set(reader.getPos());
+			return reader.next(value);
+		}
+
+		@Override
+		public LongWritable getCurrentKey() {
+			return key;
+		}
+
+		@Override
+		public Text getCurrentValue() {
+			return value;
+		}
+
+		@Override
+		public float getProgress() throws IOException {
+			return reader.getProgress();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (reader != null)
+				reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package mapreduce;
+
+/**
+ * Osservazioni del dataset iniziale aggregate per bike station, bin e dimensione del bike station, senza
+ * calcolare la transazione di ogni bin: per ogni terna (bike station, bin, size) sono memorizzati il numero di
+ * osservazioni <i>count</i> e la somma delle biciclette disponibili <i>bikeSum</i>, come in un {@link SizeHistogram}.<br>
+ * Poiché gli istogrammi di più bin possono essere fusi tra loro, la tabella calcolata con un intervallo fine permette
+ * di ricostruire esattamente le transazioni di ogni intervallo multiplo, senza rileggere il dataset iniziale:
+ * il bin con intervallo <code>factor * interval</code> contiene le osservazioni dei bin fini da
+ * <code>binId * factor</code> a <code>(binId+1) * factor - 1</code>.<br>
+ * Le terne sono memorizzate in array paralleli di tipi primitivi, ordinate per bike station, bin e dimensione.
+ *
+ * @author Armando Segatori
+ * @see BikeMiBinLocalRunner#readFineBins
+ */
+public class FineBinTable {
+
+	/**
+	 * Dimensione del bin in millisecondi
+	 */
+	private final long interval;
+
+	private final int[] stationIds;
+
+	private final int[] binIds;
+
+	private final int[] sizes;
+
+	private final long[] counts;
+
+	private final long[] bikeSums;
+
+	/**
+	 * Costruttore. Gli array devono avere la stessa lunghezza ed essere ordinati per bike station, bin e dimensione.
+	 *
+	 * @param interval dimensione del bin in millisecondi
+	 * @param stationIds id dei bike station
+	 * @param binIds id univoci dei bin
+	 * @param sizes dimensioni dei bike station
+	 * @param counts numero di osservazioni di ogni terna
+	 * @param bikeSums somma delle biciclette disponibili di ogni terna
+	 */
+	public FineBinTable(long interval, int[] stationIds, int[] binIds, int[] sizes, long[] counts, long[] bikeSums){
+		this.interval = interval;
+		this.stationIds = stationIds;
+		this.binIds = binIds;
+		this.sizes = sizes;
+		this.counts = counts;
+		this.bikeSums = bikeSums;
+	}
+
+	/**
+	 * @return la dimensione del bin in millisecondi
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return il numero di terne (bike station, bin, size)
+	 */
+	public int getLength() {
+		return stationIds.length;
+	}
+
+	/**
+	 * @param index posizione della terna (da 0 a {@link #getLength()}-1)
+	 * @return l'id del bike station
+	 */
+	public int getStationId(int index) {
+		return stationIds[index];
+	}
+
+	/**
+	 * @param index posizione della terna (da 0 a {@link #getLength()}-1)
+	 * @return l'id univoco del bin
+	 */
+	public int getBinId(int index) {
+		return binIds[index];
+	}
+
+	/**
+	 * @param index posizione della terna (da 0 a {@link #getLength()}-1)
+	 * @return la dimensione del bike station
+	 */
+	public int getSize(int index) {
+		return sizes[index];
+	}
+
+	/**
+	 * @param index posizione della terna (da 0 a {@link #getLength()}-1)
+	 * @return il numero di osservazioni
+	 */
+	public long getCount(int index) {
+		return counts[index];
+	}
+
+	/**
+	 * @param index posizione della terna (da 0 a {@link #getLength()}-1)
+	 * @return la somma delle biciclette disponibili
+	 */
+	public long getBikeSum(int index) {
+		return bikeSums[index];
+	}
+
+}
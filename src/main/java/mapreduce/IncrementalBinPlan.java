@@ -0,0 +1,413 @@
+package mapreduce;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TimeZone;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.apache.mahout.common.HadoopUtil;
+
+/**
+ * Stabilisce quali giorni e quali file di input devono essere trasformati, in modo da non ripetere
+ * la trasformazione dei giorni già presenti nella directory di output.<br>
+ * Al termine di ogni trasformazione nella directory di output è memorizzato il file {@link #MANIFEST_NAME}
+ * con i parametri utilizzati, il numero di giorni trasformati e i file di input letti (con dimensione, data
+ * di modifica e, dopo una trasformazione incrementale, il primo e l'ultimo giorno delle loro osservazioni).
+ * In modalità incrementale, se i parametri sono gli stessi, nessun file già letto è stato modificato o cancellato,
+ * nessun nuovo file ha osservazioni nei giorni già trasformati e la finestra temporale non è ridotta:
+ * <li>se la finestra temporale non è cambiata, il dataset trasformato è già aggiornato;</li>
+ * <li>altrimenti sono trasformati solo i nuovi giorni leggendo tutti i file di input, nuovi o già letti, con
+ * 		osservazioni nei nuovi giorni. Il risultato è scritto in una directory temporanea e poi spostato nella
+ * 		directory di output accanto ai file esistenti.</li>
+ * Negli altri casi tutto il dataset è trasformato di nuovo.<br>
+ * I giorni delle osservazioni dei file che non li hanno nel manifest (i nuovi file e quelli letti da una trasformazione
+ * completa) sono ricavati leggendo i file una sola volta. Se nessun file ha osservazioni nei nuovi giorni il manifest
+ * non è aggiornato, così che i nuovi giorni siano trasformati appena le loro osservazioni sono disponibili.
+ *
+ * @author Armando Segatori
+ * @see BikeMiBinDriver
+ * @see BikeMiBinLocalRunner
+ */
+public class IncrementalBinPlan {
+
+	/**
+	 * Nome del file in cui sono memorizzate le informazioni sul dataset trasformato
+	 */
+	public static final String MANIFEST_NAME = "_manifest";
+
+	/**
+	 * Prefisso dei <code>SequenceFile</code> del dataset trasformato
+	 */
+	private static final String PART_FILE_PREFIX = "part-r-";
+
+	private static final String START_DATE_KEY = "start_date";
+	private static final String INTERVAL_KEY = "interval";
+	private static final String NUM_TARGET_KEY = "num_target";
+	private static final String SPLITTER_KEY = "splitter";
+	private static final String FORMAT_KEY = "format";
+	private static final String DAYS_KEY = "days";
+	private static final String FILE_KEY_PREFIX = "file.";
+
+	private static final long MILLS_IN_A_DAY = 86400000; //  24 (hors) * 60 (minutes) * 60 (seconds) * 1000 (milliseconds);
+
+	/**
+	 * Filtro che esclude i file nascosti, come fa <code>FileInputFormat</code>
+	 */
+	private static final PathFilter HIDDEN_FILE_FILTER = new PathFilter(){
+		@Override
+		public boolean accept(Path path) {
+			String name = path.getName();
+			return !name.startsWith("_") && !name.startsWith(".");
+		}
+	};
+
+	private final Configuration conf;
+
+	/**
+	 * Directory di output
+	 */
+	private final Path outputPath;
+
+	/**
+	 * Directory in cui scrivere il risultato della trasformazione
+	 */
+	private final Path targetPath;
+
+	/**
+	 * Manifest da scrivere al termine della trasformazione
+	 */
+	private final Properties manifest;
+
+	/**
+	 * File di input da leggere
+	 */
+	private final List<FileStatus> inputFiles;
+
+	/**
+	 * Primo giorno da trasformare
+	 */
+	private final int firstDay;
+
+	private final boolean upToDate;
+
+	private IncrementalBinPlan(Configuration conf, Path outputPath, Path targetPath, Properties manifest,
+			List<FileStatus> inputFiles, int firstDay, boolean upToDate){
+		this.conf = conf;
+		this.outputPath = outputPath;
+		this.targetPath = targetPath;
+		this.manifest = manifest;
+		this.inputFiles = inputFiles;
+		this.firstDay = firstDay;
+		this.upToDate = upToDate;
+	}
+
+	/**
+	 * Stabilisce cosa trasformare.
+	 *
+	 * @param conf configurazione di Hadoop
+	 * @param outputPath directory di output
+	 * @param input directory o file di input
+	 * @param splitter pattern che identifica come separare le informazioni di ogni transazione
+	 * @param startDateMill data di inizio (in millisecondi)
+	 * @param days numero di giorni consecutivi da considerare
+	 * @param interval dimensione del bin in millisecondi
+	 * @param numTarget numero di etichette che la variabile di uscita può assumere
+	 * @param outputFormat formato del dataset trasformato
+	 * @param incremental <code>true</code> per trasformare solo i nuovi giorni, se possibile
+	 * @return il piano della trasformazione
+	 * @throws IOException
+	 */
+	public static IncrementalBinPlan create(Configuration conf, Path outputPath, Path input, String splitter,
+			long startDateMill, int days, long interval, int numTarget, String outputFormat, boolean incremental)
+				throws IOException{
+		FileStatus[] allFiles = listInputFiles(FileSystem.get(input.toUri(), conf), input);
+
+		Properties manifest = new Properties();
+		manifest.setProperty(START_DATE_KEY, "" + startDateMill);
+		manifest.setProperty(INTERVAL_KEY, "" + interval);
+		manifest.setProperty(NUM_TARGET_KEY, "" + numTarget);
+		manifest.setProperty(SPLITTER_KEY, splitter);
+		manifest.setProperty(FORMAT_KEY, outputFormat);
+		manifest.setProperty(DAYS_KEY, "" + days);
+
+		Properties previous = incremental ? loadManifest(conf, outputPath) : null;
+		if (previous != null && isCompatible(previous, manifest, allFiles)){
+			int binnedDays = Integer.parseInt(previous.getProperty(DAYS_KEY));
+
+			// Get the days of the new files, and of the files already read when the new days need them
+			FileSystem fs = FileSystem.get(input.toUri(), conf);
+			ObservationParser parser = new ObservationParser(splitter, startDateMill, Long.MAX_VALUE, MILLS_IN_A_DAY,
+					TimeZone.getDefault());
+			List<FileStatus> inputFiles = new ArrayList<FileStatus>();
+			boolean binnedDaysChanged = false;
+			for (FileStatus file : allFiles){
+				String value = previous.getProperty(getFileKey(file));
+				int[] range = getDayRange(value);
+				if (range == null && (value == null || binnedDays < days)){
+					range = readDayRange(fs, conf, file, parser);
+					// A new file with observations in the days already binned
+					if (value == null && range[0] < binnedDays)
+						binnedDaysChanged = true;
+					value = getFileValue(file) + "," + range[0] + "," + range[1];
+				}
+				manifest.setProperty(getFileKey(file), value);
+				if (range != null && range[1] >= binnedDays && range[0] < days)
+					inputFiles.add(file);
+			}
+
+			// Otherwise the days already binned have new observations: bin all the days again
+			if (!binnedDaysChanged){
+				if (binnedDays == days || inputFiles.isEmpty())
+					return new IncrementalBinPlan(conf, outputPath, outputPath, previous, new ArrayList<FileStatus>(), days, true);
+
+				Path targetPath = new Path(outputPath.getParent(), outputPath.getName() + "_incremental");
+				return new IncrementalBinPlan(conf, outputPath, targetPath, manifest, inputFiles, binnedDays, false);
+			}
+		}
+
+		// Bin all the days (keeping the days of the files already read)
+		for (FileStatus file : allFiles){
+			if (manifest.getProperty(getFileKey(file)) == null)
+				manifest.setProperty(getFileKey(file), getFileValue(file));
+		}
+		return new IncrementalBinPlan(conf, outputPath, outputPath, manifest, Arrays.asList(allFiles), 0, false);
+	}
+
+	/**
+	 * Controlla che il dataset trasformato possa essere esteso: i parametri devono essere gli stessi,
+	 * la finestra temporale non può essere ridotta e i file già letti non possono essere stati modificati.
+	 *
+	 * @param previous manifest del dataset trasformato
+	 * @param current manifest della nuova trasformazione
+	 * @param allFiles file di input
+	 * @return <code>true</code> se il dataset trasformato può essere esteso
+	 */
+	private static boolean isCompatible(Properties previous, Properties current, FileStatus[] allFiles){
+		for (String key : new String[]{START_DATE_KEY, INTERVAL_KEY, NUM_TARGET_KEY, SPLITTER_KEY, FORMAT_KEY}){
+			if (!current.getProperty(key).equals(previous.getProperty(key)))
+				return false;
+		}
+		if (Integer.parseInt(previous.getProperty(DAYS_KEY)) > Integer.parseInt(current.getProperty(DAYS_KEY)))
+			return false;
+
+		int found = 0;
+		for (FileStatus file : allFiles){
+			String value = previous.getProperty(getFileKey(file));
+			if (value == null)
+				continue;
+			if (!(value + ",").startsWith(getFileValue(file) + ","))
+				return false; // Modified
+			found++;
+		}
+		int read = 0;
+		for (String key : previous.stringPropertyNames()){
+			if (key.startsWith(FILE_KEY_PREFIX))
+				read++;
+		}
+		return found == read; // No file has been deleted
+	}
+
+	/**
+	 * Elenca i file di input, escludendo i file nascosti.
+	 *
+	 * @param fs filesystem dei file di input
+	 * @param input directory o file di input
+	 * @return i file di input
+	 * @throws IOException
+	 */
+	public static FileStatus[] listInputFiles(FileSystem fs, Path input) throws IOException{
+		if (!fs.getFileStatus(input).isDir())
+			return new FileStatus[]{fs.getFileStatus(input)};
+
+		List<FileStatus> files = new ArrayList<FileStatus>();
+		for (FileStatus file : fs.listStatus(input, HIDDEN_FILE_FILTER)){
+			if (!file.isDir())
+				files.add(file);
+		}
+		return files.toArray(new FileStatus[files.size()]);
+	}
+
+	private static String getFileKey(FileStatus file){
+		return FILE_KEY_PREFIX + file.getPath().toUri().getPath();
+	}
+
+	/**
+	 * @param file file di input
+	 * @return dimensione e data di modifica del file
+	 */
+	private static String getFileValue(FileStatus file){
+		return file.getLen() + "," + file.getModificationTime();
+	}
+
+	/**
+	 * @param value valore del file nel manifest
+	 * @return il primo e l'ultimo giorno delle osservazioni del file, <code>null</code> se non sono memorizzati
+	 */
+	private static int[] getDayRange(String value){
+		if (value == null)
+			return null;
+		String[] values = value.split(",");
+		if (values.length < 4)
+			return null;
+		return new int[]{Integer.parseInt(values[2]), Integer.parseInt(values[3])};
+	}
+
+	/**
+	 * Legge un file di input per ricavare il primo e l'ultimo giorno delle sue osservazioni valide.
+	 *
+	 * @param fs filesystem del file
+	 * @param conf configurazione di Hadoop
+	 * @param file file da leggere
+	 * @param parser parser delle transazioni, con bin di un giorno a partire dalla data di inizio
+	 * @return il primo e l'ultimo giorno delle osservazioni (l'ultimo è minore del primo se il file non ne ha)
+	 * @throws IOException
+	 */
+	private static int[] readDayRange(FileSystem fs, Configuration conf, FileStatus file, ObservationParser parser)
+			throws IOException{
+		int[] range = new int[]{Integer.MAX_VALUE, -1};
+		Text line = new Text();
+		InputStream in = fs.open(file.getPath());
+		CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file.getPath());
+		if (codec != null)
+			in = codec.createInputStream(in);
+		LineReader reader = new LineReader(in, conf);
+		try{
+			while (reader.readLine(line) > 0){
+				if (!parser.parse(line.toString()))
+					continue;
+				range[0] = Math.min(range[0], parser.getBinId());
+				range[1] = Math.max(range[1], parser.getBinId());
+			}
+		}finally{
+			reader.close();
+		}
+		return range;
+	}
+
+	/**
+	 * Legge il manifest della directory di output.
+	 *
+	 * @param conf configurazione di Hadoop
+	 * @param outputPath directory di output
+	 * @return il manifest, <code>null</code> se non esiste
+	 * @throws IOException
+	 */
+	private static Properties loadManifest(Configuration conf, Path outputPath) throws IOException{
+		FileSystem fs = FileSystem.get(outputPath.toUri(), conf);
+		Path path = new Path(outputPath, MANIFEST_NAME);
+		if (!fs.exists(path))
+			return null;
+
+		Properties manifest = new Properties();
+		InputStream in = fs.open(path);
+		try{
+			manifest.load(in);
+		}finally{
+			in.close();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Prepara la directory in cui scrivere il risultato della trasformazione, cancellandone il contenuto.
+	 * In caso di trasformazione completa viene cancellato anche il dataset trasformato precedente.
+	 *
+	 * @throws IOException
+	 */
+	public void prepare() throws IOException{
+		HadoopUtil.delete(conf, targetPath);
+	}
+
+	/**
+	 * Completa la trasformazione: sposta i nuovi file nella directory di output e aggiorna il manifest.
+	 *
+	 * @throws IOException
+	 */
+	public void commit() throws IOException{
+		FileSystem fs = FileSystem.get(outputPath.toUri(), conf);
+		if (!targetPath.equals(outputPath)){
+			fs.mkdirs(outputPath);
+			moveFiles(fs, PART_FILE_PREFIX);
+			moveFiles(fs, ColumnarBinWriter.FILE_PREFIX);
+			fs.delete(targetPath, true);
+		}
+
+		OutputStream out = fs.create(new Path(outputPath, MANIFEST_NAME), true);
+		try{
+			manifest.store(out, "Binned dataset");
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Sposta i file con un dato prefisso dalla directory temporanea alla directory di output, numerandoli
+	 * a partire dal primo indice libero.
+	 *
+	 * @param fs filesystem di output
+	 * @param prefix prefisso dei file
+	 * @throws IOException
+	 */
+	private void moveFiles(FileSystem fs, String prefix) throws IOException{
+		FileStatus[] files = fs.globStatus(new Path(targetPath, prefix + "*"));
+		if (files == null)
+			return;
+		FileStatus[] existing = fs.globStatus(new Path(outputPath, prefix + "*"));
+		int next = existing == null ? 0 : existing.length;
+		Arrays.sort(files);
+		for (FileStatus file : files){
+			Path dest = new Path(outputPath, String.format("%s%05d", prefix, next++));
+			if (!fs.rename(file.getPath(), dest))
+				throw new IOException("Cannot move " + file.getPath() + " to " + dest);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> se il dataset trasformato è già aggiornato e non c'è niente da trasformare
+	 */
+	public boolean isUpToDate() {
+		return upToDate;
+	}
+
+	/**
+	 * @return <code>true</code> se sono trasformati solo i nuovi giorni
+	 */
+	public boolean isIncremental() {
+		return firstDay > 0;
+	}
+
+	/**
+	 * @return il primo giorno da trasformare
+	 */
+	public int getFirstDay() {
+		return firstDay;
+	}
+
+	/**
+	 * @return i file di input da leggere
+	 */
+	public List<FileStatus> getInputFiles() {
+		return inputFiles;
+	}
+
+	/**
+	 * @return la directory in cui scrivere il risultato della trasformazione
+	 */
+	public Path getTargetPath() {
+		return targetPath;
+	}
+
+}
@@ -0,0 +1,66 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Valore scritto dal Reducer di {@link BikeMiTrainDriver}: la riga di valori del modello allenato di un
+ * bike station (vedi {@link prediction.ModelFile}).
+ * <li><i>kind</i>: tipo del modello;</li>
+ * <li><i>row</i>: riga di valori del modello.</li>
+ *
+ * @author Armando Segatori
+ * @see BikeMiTrainReducer
+ */
+public class ModelRowWritable implements Writable {
+
+	private int kind;
+
+	private double[] row = new double[0];
+
+	/**
+	 * Costruttore di default, utilizzato da Hadoop durante la deserializzazione
+	 */
+	public ModelRowWritable(){
+	}
+
+	public void set(int kind, double[] row){
+		this.kind = kind;
+		this.row = row;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public double[] getRow() {
+		return row;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, kind);
+		WritableUtils.writeVInt(out, row.length);
+		for (double value : row)
+			out.writeDouble(value);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		kind = WritableUtils.readVInt(in);
+		// A new array: the rows are collected by the driver
+		row = new double[WritableUtils.readVInt(in)];
+		for (int i = 0; i < row.length; i++)
+			row[i] = in.readDouble();
+	}
+
+	@Override
+	public String toString() {
+		return kind + BikeMiBinDriver.SPLITTER_BIN + row.length;
+	}
+
+}
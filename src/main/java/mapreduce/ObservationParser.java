@@ -0,0 +1,220 @@
+package mapreduce;
+
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+import utility.DateUtil;
+
+/**
+ * Legge una transazione del dataset iniziale (<i>id bike free timestamp</i>), controlla che sia valida
+ * e calcola l'id univoco del bin a cui appartiene.<br>
+ * La stessa logica è utilizzata dal Mapper {@link BikeMiBinMapper} e dall'esecuzione locale
+ * {@link BikeMiBinLocalRunner}, in modo che i due producano lo stesso dataset trasformato.
+ * Un'istanza non è thread-safe: ogni thread deve utilizzarne una propria.
+ *
+ * @author Armando Segatori
+ *
+ */
+public class ObservationParser {
+
+	/**
+	 * Pattern da utilizzare per recuperare le informazioni dal dataset.
+	 */
+	private final Pattern splitter;
+
+	/**
+	 * Data di inizia (in millisecondi).
+	 */
+	private final long startDateMill;
+
+	/**
+	 * Data della prima osservazione da prendere in considerazione (in millisecondi).
+	 * Coincide con la data di inizio, a meno di trasformare solo gli ultimi giorni (vedi {@link IncrementalBinPlan}).
+	 */
+	private final long firstDateMill;
+
+	/**
+	 * Data di fine (in millisecondi).
+	 */
+	private final long endDateMill;
+
+	/**
+	 * Dimensione del bin (in millisecondi).
+	 */
+	private final long interval;
+
+	/**
+	 * Timezone in cui sono espressi i timestamp del dataset.
+	 */
+	private final TimeZone timeZone;
+
+	private int stationId;
+
+	private int bike;
+
+	private int size;
+
+	private int binId;
+
+	/**
+	 * Motivo per cui l'ultima transazione letta è stata scartata
+	 */
+	private BinCounters rejection;
+
+	/**
+	 * Costruttore
+	 *
+	 * @param splitter pattern che identifica come separare le informazioni di ogni transazione
+	 * @param startDateMill data di inizio (in millisecondi)
+	 * @param endDateMill data di fine (in millisecondi)
+	 * @param interval dimensione del bin (in millisecondi)
+	 * @param timeZone timezone in cui sono espressi i timestamp del dataset
+	 */
+	public ObservationParser(String splitter, long startDateMill, long endDateMill,
+			long interval, TimeZone timeZone){
+		this(splitter, startDateMill, startDateMill, endDateMill, interval, timeZone);
+	}
+
+	/**
+	 * Costruttore. Le osservazioni precedenti <code>firstDateMill</code> non sono prese in considerazione,
+	 * ma gli id dei bin sono sempre calcolati a partire dalla data di inizio.
+	 *
+	 * @param splitter pattern che identifica come separare le informazioni di ogni transazione
+	 * @param startDateMill data di inizio (in millisecondi)
+	 * @param firstDateMill data della prima osservazione da prendere in considerazione (in millisecondi)
+	 * @param endDateMill data di fine (in millisecondi)
+	 * @param interval dimensione del bin (in millisecondi)
+	 * @param timeZone timezone in cui sono espressi i timestamp del dataset
+	 */
+	public ObservationParser(String splitter, long startDateMill, long firstDateMill, long endDateMill,
+			long interval, TimeZone timeZone){
+		this.splitter = Pattern.compile(splitter);
+		this.startDateMill = startDateMill;
+		this.firstDateMill = firstDateMill;
+		this.endDateMill = endDateMill;
+		this.interval = interval;
+		this.timeZone = timeZone;
+	}
+
+	/**
+	 * Controlla che i valore di <i>bike</i> e <i>free</i> della specifica transazione siano validi.
+	 *
+	 * @param bike numero di bicilette disponibili. Colonna <i>bike</i> del dataset.
+	 * @param free numero di stalli liberi. Colonna <i>free</i> del dataset.
+	 * @return <code>true</code> if values are valid, <code>false</code> otherwise.
+	 */
+	private boolean isValidObservation(int bike, int free){
+		int size = bike + free;
+		return (size > 0 && bike >= 0 && free >= 0);
+	}
+
+	/**
+	 * Controlla che la data letta nella transazione sia valida, ossia
+	 * che si trovi all'interno della finestra temporale specificata da <code>first date</code>
+	 * e <code> end date</code>.
+	 *
+	 * @param millDate la data da controllare in millisecondi
+	 * @return <code>true</code> if the date is valid, <code>false</code> otherwise.
+	 */
+	private boolean isValidTimestamp(long millDate){
+		return (millDate >= firstDateMill && millDate < endDateMill);
+	}
+
+	/**
+	 * Legge una transazione. Se la transazione è valida i suoi valori sono
+	 * disponibili tramite i metodi get fino alla prossima chiamata.
+	 *
+	 * @param line la transazione da leggere
+	 * @return <code>true</code> se la transazione è valida, <code>false</code> se la transazione
+	 * 			non deve essere presa in considerazione (il motivo è restituito da {@link #getRejection()}).
+	 */
+	public boolean parse(String line){
+		String[] values = splitter.split(line);
+		if (values.length < 4)
+			return reject(BinCounters.MALFORMED_ROWS);
+
+		int id = -1;
+		int bike = -1;
+		int free = -1;
+
+		try{
+			// Parse all data
+			id 	 = Integer.parseInt(values[0].trim());
+			bike = Integer.parseInt(values[1].trim());
+			free = Integer.parseInt(values[2].trim());
+		}catch(NumberFormatException e){
+			// The transaction is not taken into account
+			return reject(BinCounters.MALFORMED_ROWS);
+		}
+
+		// Get the timestamp (in millisecond)
+		long millDate;
+		try{
+			millDate = DateUtil.stringIso8601ToMillis(values[3].trim(), timeZone);
+		}catch(IllegalArgumentException e){
+			// Unparsable timestamp
+			return reject(BinCounters.MALFORMED_ROWS);
+		}
+
+		// Check date and the other info
+		if (millDate >= startDateMill && millDate < firstDateMill)
+			return reject(BinCounters.ALREADY_BINNED_ROWS);
+		if (!isValidTimestamp(millDate))
+			return reject(BinCounters.OUT_OF_WINDOW_ROWS);
+		if (!isValidObservation(bike, free))
+			return reject(BinCounters.INVALID_OBSERVATIONS);
+
+		// Normalize the start date
+		millDate -= startDateMill;
+
+		this.stationId = id;
+		this.bike = bike;
+		// Calculate the station size
+		this.size = bike + free;
+		// Calculate the bin id
+		this.binId = (int) (millDate / interval);
+		this.rejection = null;
+		return true;
+	}
+
+	private boolean reject(BinCounters reason){
+		this.rejection = reason;
+		return false;
+	}
+
+	/**
+	 * @return il motivo per cui l'ultima transazione letta è stata scartata, <code>null</code> se è valida
+	 */
+	public BinCounters getRejection() {
+		return rejection;
+	}
+
+	/**
+	 * @return l'id del bike station dell'ultima transazione letta
+	 */
+	public int getStationId() {
+		return stationId;
+	}
+
+	/**
+	 * @return il numero di biciclette disponibili dell'ultima transazione letta
+	 */
+	public int getBike() {
+		return bike;
+	}
+
+	/**
+	 * @return la dimensione del bike station dell'ultima transazione letta
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return l'id univoco del bin dell'ultima transazione letta
+	 */
+	public int getBinId() {
+		return binId;
+	}
+
+}
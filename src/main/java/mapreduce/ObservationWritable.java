@@ -0,0 +1,84 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Valore inviato dal Mapper e dal Combiner al Reducer. Rappresenta un aggregato parziale
+ * delle osservazioni di un bike station in un bin che hanno la stessa dimensione:
+ * <li><i>bikeSum</i>: somma delle biciclette disponibili;</li>
+ * <li><i>size</i>: dimensione del bike station;</li>
+ * <li><i>count</i>: numero di osservazioni aggregate (1 per le osservazioni inviate dal Mapper).</li>
+ * I campi sono serializzati con codifica a lunghezza variabile: una singola osservazione occupa
+ * tipicamente 3 byte.
+ *
+ * @author Armando Segatori
+ * @see SizeHistogram
+ */
+public class ObservationWritable implements Writable {
+
+	private long bikeSum;
+
+	private int size;
+
+	private long count;
+
+	/**
+	 * Costruttore di default, utilizzato da Hadoop durante la deserializzazione
+	 */
+	public ObservationWritable(){
+	}
+
+	/**
+	 * Costruttore
+	 *
+	 * @param bikeSum somma delle biciclette disponibili
+	 * @param size dimensione del bike station
+	 * @param count numero di osservazioni aggregate
+	 */
+	public ObservationWritable(long bikeSum, int size, long count){
+		set(bikeSum, size, count);
+	}
+
+	public void set(long bikeSum, int size, long count){
+		this.bikeSum = bikeSum;
+		this.size = size;
+		this.count = count;
+	}
+
+	public long getBikeSum() {
+		return bikeSum;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVLong(out, bikeSum);
+		WritableUtils.writeVInt(out, size);
+		WritableUtils.writeVLong(out, count);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		bikeSum = WritableUtils.readVLong(in);
+		size = WritableUtils.readVInt(in);
+		count = WritableUtils.readVLong(in);
+	}
+
+	@Override
+	public String toString() {
+		return bikeSum + BikeMiBinDriver.SPLITTER_BIN + size + BikeMiBinDriver.SPLITTER_BIN + count;
+	}
+
+}
@@ -0,0 +1,207 @@
+package mapreduce;
+
+import java.util.Arrays;
+
+/**
+ * Aggregato parziale delle osservazioni di un bike station in un determinato bin.<br>
+ * Per ogni dimensione <i>size</i> letta memorizza il numero di osservazioni <i>count</i>
+ * e la somma delle biciclette disponibili <i>bikeSum</i>. Due istogrammi possono essere
+ * fusi tra loro sommando le coppie (count, bikeSum) con la stessa dimensione: per questo
+ * motivo l'istogramma può essere calcolato sia dal Combiner, sia dal Reducer senza
+ * modificare il risultato finale.<br>
+ * L'istogramma è memorizzato in array di tipi primitivi paralleli: la memoria occupata dipende
+ * solamente dal numero di dimensioni differenti lette nel bin (tipicamente una o due) e non dal
+ * numero di osservazioni, e l'istogramma può essere riutilizzato per più bin senza allocare oggetti.
+ *
+ * @author Armando Segatori
+ * @see BikeMiBinCombiner
+ * @see BikeMiBinReducer
+ */
+public class SizeHistogram {
+
+	/**
+	 * Capacità iniziale dell'istogramma
+	 */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Dimensioni lette
+	 */
+	private int[] sizes = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Numero di osservazioni per ogni dimensione
+	 */
+	private long[] counts = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Somma delle biciclette disponibili per ogni dimensione
+	 */
+	private long[] bikeSums = new long[INITIAL_CAPACITY];
+
+	/**
+	 * Numero di dimensioni differenti memorizzate
+	 */
+	private int numSizes = 0;
+
+	/**
+	 * Aggiunge all'istogramma un aggregato parziale.
+	 *
+	 * @param size dimensione del bike station
+	 * @param count numero di osservazioni con dimensione <code>size</code>
+	 * @param bikeSum somma delle biciclette disponibili nelle osservazioni con dimensione <code>size</code>
+	 */
+	public void add(int size, long count, long bikeSum){
+		int index = indexOf(size);
+		if (index < 0){
+			if (numSizes == sizes.length){
+				int capacity = sizes.length * 2;
+				sizes = Arrays.copyOf(sizes, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+				bikeSums = Arrays.copyOf(bikeSums, capacity);
+			}
+			index = numSizes++;
+			sizes[index] = size;
+			counts[index] = 0;
+			bikeSums[index] = 0;
+		}
+		counts[index] += count;
+		bikeSums[index] += bikeSum;
+	}
+
+	/**
+	 * Svuota l'istogramma in modo da poterlo riutilizzare per un nuovo bin.
+	 */
+	public void clear(){
+		numSizes = 0;
+	}
+
+	/**
+	 * Recupera la dimensione del bike station. Per vari motivi, quali malfunzinamento
+	 * dei sensori installati sui singoli stalli del bike station o un errato invio
+	 * dei dati durante la rilevazione, il valore di <code>size</code> inviato dal mapper
+	 * può variare tra un'osservazione e l'altra. Il metodo restituisce la dimensione che ha
+	 * la frequenza massima.<br>
+	 * Ad esempio se per il determinato bin abbiamo 5 osservazioni del tipo:
+	 * <i>id, binId, bike, size<br></i>
+	 * 0, 0, 5, 20<br>
+	 * 0, 0, 10, 20<br>
+	 * 0, 0, 10, 19<br>
+	 * 0, 0, 10, 23<br>
+	 * 0, 0, 15, 20<br>
+	 * la dimensione dello stallo è 20, perché quella che ha massima frequenza.
+	 * A parità di frequenza viene scelta la dimensione maggiore, in modo che il risultato
+	 * non dipenda dall'ordine in cui le osservazioni sono lette.
+	 *
+	 * @return la dimensione del bike station o -1 se l'istogramma è vuoto
+	 */
+	public int getModalSize(){
+		int index = getModalIndex();
+		return index < 0 ? -1 : sizes[index];
+	}
+
+	/**
+	 * Ritorna il numero di osservazioni con una determinata dimensione.
+	 *
+	 * @param size dimensione del bike station
+	 * @return il numero di osservazioni con dimensione <code>size</code>
+	 */
+	public long getCount(int size){
+		int index = indexOf(size);
+		return index < 0 ? 0 : counts[index];
+	}
+
+	/**
+	 * Ritorna la somma delle biciclette disponibili nelle osservazioni con una determinata dimensione.
+	 *
+	 * @param size dimensione del bike station
+	 * @return la somma delle biciclette disponibili nelle osservazioni con dimensione <code>size</code>
+	 */
+	public long getBikeSum(int size){
+		int index = indexOf(size);
+		return index < 0 ? 0 : bikeSums[index];
+	}
+
+	/**
+	 * Ritorna il numero di dimensioni differenti presenti nell'istogramma.
+	 *
+	 * @return il numero di dimensioni differenti lette nelle osservazioni del bin
+	 */
+	public int getNumSizes(){
+		return numSizes;
+	}
+
+	/**
+	 * Ritorna il numero totale di osservazioni, per tutte le dimensioni.
+	 *
+	 * @return il numero di osservazioni lette nel bin
+	 */
+	public long getTotalCount(){
+		long total = 0;
+		for (int i = 0; i < numSizes; i++)
+			total += counts[i];
+		return total;
+	}
+
+	/**
+	 * Ritorna la dimensione memorizzata in una determinata posizione dell'istogramma.
+	 *
+	 * @param index posizione (da 0 a {@link #getNumSizes()}-1)
+	 * @return la dimensione memorizzata nella posizione <code>index</code>
+	 */
+	public int getSizeAt(int index){
+		return sizes[index];
+	}
+
+	/**
+	 * Ritorna il numero di osservazioni memorizzato in una determinata posizione dell'istogramma.
+	 *
+	 * @param index posizione (da 0 a {@link #getNumSizes()}-1)
+	 * @return il numero di osservazioni memorizzato nella posizione <code>index</code>
+	 */
+	public long getCountAt(int index){
+		return counts[index];
+	}
+
+	/**
+	 * Ritorna la somma delle biciclette disponibili memorizzata in una determinata posizione dell'istogramma.
+	 *
+	 * @param index posizione (da 0 a {@link #getNumSizes()}-1)
+	 * @return la somma delle biciclette disponibili memorizzata nella posizione <code>index</code>
+	 */
+	public long getBikeSumAt(int index){
+		return bikeSums[index];
+	}
+
+	/**
+	 * Ritorna la posizione della dimensione con frequenza massima.
+	 *
+	 * @return la posizione della dimensione con frequenza massima o -1 se l'istogramma è vuoto
+	 * @see #getModalSize()
+	 */
+	public int getModalIndex(){
+		int modalIndex = -1;
+		for (int i = 0; i < numSizes; i++){
+			if (modalIndex < 0 || counts[i] > counts[modalIndex]
+					|| (counts[i] == counts[modalIndex] && sizes[i] > sizes[modalIndex]))
+				modalIndex = i;
+		}
+
+		return modalIndex;
+	}
+
+	/**
+	 * Cerca una dimensione nell'istogramma.
+	 *
+	 * @param size dimensione da cercare
+	 * @return la posizione della dimensione o -1 se non presente
+	 */
+	private int indexOf(int size){
+		for (int i = 0; i < numSizes; i++){
+			if (sizes[i] == size)
+				return i;
+		}
+		return -1;
+	}
+
+}
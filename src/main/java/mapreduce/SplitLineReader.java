@@ -0,0 +1,151 @@
+package mapreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * Legge le righe di un blocco (split) di un file di testo, eventualmente compresso.<br>
+ * Il codec è ricavato dall'estensione del file (vedi <code>CompressionCodecFactory</code>):
+ * <li>file non compressi e file compressi con un codec che supporta la suddivisione in blocchi
+ * 		(<code>SplittableCompressionCodec</code>, ad esempio bzip2) possono essere letti a blocchi;</li>
+ * <li>file compressi con gli altri codec (ad esempio gzip) devono essere letti per intero in un unico blocco.</li>
+ * Come per <code>LineRecordReader</code>, la prima riga è scartata se il blocco non inizia all'inizio del file
+ * e l'ultima riga letta è quella che inizia prima della fine del blocco: ogni riga è letta da un solo blocco.
+ * Per i file compressi i limiti del blocco sono posizioni nel file compresso.
+ *
+ * @author Armando Segatori
+ * @see CompressedTextInputFormat
+ * @see BikeMiBinLocalRunner
+ */
+public class SplitLineReader implements Closeable {
+
+	private final LineReader in;
+
+	/**
+	 * Stream da cui recuperare la posizione nel file compresso, <code>null</code> se il file non è compresso
+	 */
+	private final Seekable filePosition;
+
+	private Decompressor decompressor = null;
+
+	private final long start;
+
+	private final long end;
+
+	/**
+	 * Posizione della prossima riga (nel file non compresso, se il file non è compresso)
+	 */
+	private long pos;
+
+	/**
+	 * Costruttore
+	 *
+	 * @param fs filesystem del file
+	 * @param conf configurazione di Hadoop
+	 * @param file file da leggere
+	 * @param start posizione di inizio del blocco
+	 * @param end posizione di fine del blocco
+	 * @throws IOException
+	 */
+	public SplitLineReader(FileSystem fs, Configuration conf, Path file, long start, long end) throws IOException{
+		CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+		FSDataInputStream fileIn = fs.open(file);
+		if (codec instanceof SplittableCompressionCodec){
+			decompressor = CodecPool.getDecompressor(codec);
+			SplitCompressionInputStream cIn = ((SplittableCompressionCodec) codec).createInputStream(fileIn,
+					decompressor, start, end, SplittableCompressionCodec.READ_MODE.BYBLOCK);
+			in = new LineReader(cIn, conf);
+			// The stream starts and ends at the compressed block boundaries
+			start = cIn.getAdjustedStart();
+			end = cIn.getAdjustedEnd();
+			filePosition = cIn;
+		}
+		else if (codec != null){
+			decompressor = CodecPool.getDecompressor(codec);
+			in = new LineReader(codec.createInputStream(fileIn, decompressor), conf);
+			end = Long.MAX_VALUE; // Not splittable: read the whole file
+			filePosition = fileIn;
+		}
+		else{
+			fileIn.seek(start);
+			in = new LineReader(fileIn, conf);
+			filePosition = null;
+		}
+
+		// Skip the first (partial) line
+		if (start != 0)
+			start += in.readLine(new Text());
+		this.start = start;
+		this.end = end;
+		this.pos = start;
+	}
+
+	/**
+	 * @return la posizione corrente nel file (compresso)
+	 * @throws IOException
+	 */
+	private long getFilePosition() throws IOException{
+		return filePosition == null ? pos : filePosition.getPos();
+	}
+
+	/**
+	 * Legge la prossima riga del blocco.
+	 *
+	 * @param line la riga letta
+	 * @return <code>true</code> se è stata letta una riga, <code>false</code> se il blocco è terminato
+	 * @throws IOException
+	 */
+	public boolean next(Text line) throws IOException{
+		if (getFilePosition() > end)
+			return false;
+		int read = in.readLine(line);
+		if (read == 0) // End of file
+			return false;
+		pos += read;
+		return true;
+	}
+
+	/**
+	 * @return la posizione della prossima riga (nel file non compresso, se il file non è compresso)
+	 */
+	public long getPos() {
+		return pos;
+	}
+
+	/**
+	 * @return la frazione del blocco già letta
+	 * @throws IOException
+	 */
+	public float getProgress() throws IOException{
+		if (start == end || end == Long.MAX_VALUE)
+			return 0.0f;
+		return Math.min(1.0f, (getFilePosition() - start) / (float) (end - start));
+	}
+
+	@Override
+	public void close() throws IOException {
+		try{
+			in.close();
+		}finally{
+			if (decompressor != null){
+				CodecPool.returnDecompressor(decompressor);
+				decompressor = null;
+			}
+		}
+	}
+
+}
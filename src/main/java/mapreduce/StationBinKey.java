@@ -0,0 +1,163 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Chiave composta inviata dal Mapper al Reducer: identifica univocamente un bin
+ * di un determinato bike station.
+ * <li><i>stationId</i>: id univoco del bike station;</li>
+ * <li><i>binId</i>: id univoco del bin in tutta la finestra temporale considerata (vedi {@link utility.BinUtil}).</li>
+ * La chiave è serializzata come due interi a dimensione fissa, in modo che il {@link Comparator}
+ * possa ordinare le chiavi durante lo shuffle direttamente sui byte, senza deserializzarle.
+ *
+ * @author Armando Segatori
+ *
+ */
+public class StationBinKey implements WritableComparable<StationBinKey> {
+
+	/**
+	 * Dimensione in byte della chiave serializzata
+	 */
+	public static final int SERIALIZED_SIZE = 8;
+
+	private int stationId;
+
+	private int binId;
+
+	/**
+	 * Costruttore di default, utilizzato da Hadoop durante la deserializzazione
+	 */
+	public StationBinKey(){
+	}
+
+	/**
+	 * Costruttore
+	 *
+	 * @param stationId id del bike station
+	 * @param binId id univoco del bin
+	 */
+	public StationBinKey(int stationId, int binId){
+		set(stationId, binId);
+	}
+
+	public void set(int stationId, int binId){
+		this.stationId = stationId;
+		this.binId = binId;
+	}
+
+	public int getStationId() {
+		return stationId;
+	}
+
+	public int getBinId() {
+		return binId;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(stationId);
+		out.writeInt(binId);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		stationId = in.readInt();
+		binId = in.readInt();
+	}
+
+	@Override
+	public int compareTo(StationBinKey o) {
+		if (stationId != o.stationId)
+			return stationId < o.stationId ? -1 : 1;
+		if (binId != o.binId)
+			return binId < o.binId ? -1 : 1;
+		return 0;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof StationBinKey))
+			return false;
+		StationBinKey other = (StationBinKey) o;
+		return stationId == other.stationId && binId == other.binId;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * stationId + binId;
+	}
+
+	@Override
+	public String toString() {
+		return stationId + BikeMiBinDriver.SPLITTER_BIN + binId;
+	}
+
+	/**
+	 * Comparator che confronta le chiavi serializzate senza deserializzarle.
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(StationBinKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			// Compare the station id
+			int station1 = readInt(b1, s1);
+			int station2 = readInt(b2, s2);
+			if (station1 != station2)
+				return station1 < station2 ? -1 : 1;
+
+			// Compare the bin id
+			int bin1 = readInt(b1, s1 + 4);
+			int bin2 = readInt(b2, s2 + 4);
+			if (bin1 != bin2)
+				return bin1 < bin2 ? -1 : 1;
+
+			return 0;
+		}
+	}
+
+	/**
+	 * Comparator che confronta solo l'id del bike station delle chiavi serializzate. Utilizzato come
+	 * grouping comparator da {@link BikeMiTrainDriver}: il Reducer riceve in un'unica chiamata tutti i bin
+	 * di un bike station, in ordine di bin id (secondary sort).
+	 */
+	public static class StationComparator extends WritableComparator {
+
+		public StationComparator() {
+			super(StationBinKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int station1 = readInt(b1, s1);
+			int station2 = readInt(b2, s2);
+			if (station1 != station2)
+				return station1 < station2 ? -1 : 1;
+			return 0;
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public int compare(WritableComparable a, WritableComparable b) {
+			int station1 = ((StationBinKey) a).stationId;
+			int station2 = ((StationBinKey) b).stationId;
+			if (station1 != station2)
+				return station1 < station2 ? -1 : 1;
+			return 0;
+		}
+	}
+
+	static {
+		// Register the raw comparator
+		WritableComparator.define(StationBinKey.class, new Comparator());
+	}
+
+}
@@ -1,9 +1,24 @@
 package prediction;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.Path;
 import org.apache.mahout.classifier.ConfusionMatrix;
 
 /**
- * Classe astratta che implementa i metodi comuni tra tutti i predittori
+ * Classe astratta che implementa i metodi comuni tra tutti i predittori.<br>
+ * Un predittore può predire più finestre di predizione (orizzonti) contemporaneamente: il modello di ogni
+ * orizzonte è costruito e valutato nella stessa scansione delle serie e ogni orizzonte ha la propria
+ * matrice di confusione. La prima finestra di predizione è quella utilizzata dai metodi che non
+ * specificano l'orizzonte.
  * 
  * @author Armando Segatori
  *
@@ -17,14 +32,29 @@ public abstract class AbstractPredictor implements Predictor{
 	
 	/**
 	 * Finestra di predizione che indica di quanti bin in avanti vogliamo spostarci
-	 * per la predizione
+	 * per la predizione (la prima di {@link #pws})
 	 */
 	protected int pw;
 	
 	/**
-	 *  Matrice di confusione
+	 * Finestre di predizione di tutti gli orizzonti
 	 */
-	protected ConfusionMatrix cm;
+	protected int[] pws;
+	
+	/**
+	 * Numero di thread utilizzati per allenare e valutare il predittore
+	 */
+	protected int numThreads;
+	
+	/**
+	 *  Matrice di confusione di ogni orizzonte
+	 */
+	protected ConfusionMatrix[] cms;
+
+	/**
+	 * Matrice di confusione con i contatori della valutazione di ogni orizzonte
+	 */
+	protected PrimitiveConfusionMatrix[] matrices;
 
 	/**
 	 * Costruttore di default
@@ -32,7 +62,10 @@ public abstract class AbstractPredictor implements Predictor{
 	public AbstractPredictor(){
 		this.numCategories = 0;
 		this.pw = 0;
-		cm = null;
+		this.pws = new int[]{0};
+		this.numThreads = 1;
+		cms = null;
+		matrices = null;
 	}
 	
 	/**
@@ -42,14 +75,337 @@ public abstract class AbstractPredictor implements Predictor{
 	 * @param pw finestra di predizione
 	 */
 	public AbstractPredictor(int numCategories, int pw){
+		this(numCategories, pw, 1);
+	}
+	
+	/**
+	 * Costruttore 
+	 * 
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 * @param pw finestra di predizione
+	 * @param numThreads numero di thread utilizzati per allenare e valutare il predittore
+	 */
+	public AbstractPredictor(int numCategories, int pw, int numThreads){
+		this(numCategories, new int[]{pw}, numThreads);
+	}
+	
+	/**
+	 * Costruttore 
+	 * 
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 * @param pws finestre di predizione di tutti gli orizzonti (almeno una, senza ripetizioni)
+	 * @param numThreads numero di thread utilizzati per allenare e valutare il predittore
+	 */
+	public AbstractPredictor(int numCategories, int[] pws, int numThreads){
+		if (pws.length == 0)
+			throw new IllegalArgumentException("No prediction window");
+		for (int h = 0; h < pws.length; h++){
+			if (pws[h] < 0)
+				throw new IllegalArgumentException("Negative prediction window: " + pws[h]);
+			for (int i = 0; i < h; i++)
+				if (pws[i] == pws[h])
+					throw new IllegalArgumentException("Duplicated prediction window: " + pws[h]);
+		}
+		
 		this.numCategories = numCategories;
-		this.pw = pw;
-		cm = null;
+		this.pws = pws.clone();
+		this.pw = pws[0];
+		this.numThreads = Math.max(1, numThreads);
+		cms = null;
+		matrices = null;
+	}
+
+	/**
+	 * Legge il dataset e costruisce il modello con {@link #buildClassifier(BinnedDataset)}.
+	 * Per costruire più predittori è preferibile leggere il dataset una sola volta con
+	 * {@link BinnedDataset#load(Path, String, int, int, int)}.
+	 */
+	@Override
+	public void buildClassifier(Path input, String pattern, int days, int binsPerDay, int numTarget) 
+			throws IOException {
+		buildClassifier(BinnedDataset.load(input, pattern, days, binsPerDay, numTarget));
+	}
+
+	@Override
+	public void save(Path output) throws IOException {
+		ModelFile.write(output, getModelKind(), numCategories, pws, getModelRows());
+	}
+
+	/**
+	 * Carica il modello e cancella i risultati dell'ultima valutazione.
+	 */
+	@Override
+	public void load(Path input) throws IOException {
+		setModel(ModelFile.open(input, getModelKind(), numCategories, pws));
+		cms = null;
+		matrices = null;
+	}
+
+	/**
+	 * @return per ogni bike station la riga di valori del modello da salvare
+	 */
+	protected abstract Map<Integer, double[]> getModelRows();
+
+	/**
+	 * Allena il modello di un solo bike station, senza modificare il modello del predittore, e ne ritorna la riga
+	 * di valori nel formato di {@link #getModelRows()}. I bike station sono allenati indipendentemente l'uno
+	 * dall'altro: le righe allenate in processi diversi (vedi {@link mapreduce.BikeMiTrainDriver}) e riunite in un
+	 * unico {@link ModelFile} costituiscono lo stesso modello di {@link #buildClassifier(BinnedDataset)}.
+	 *
+	 * @param series serie del training set del bike station, ordinata
+	 * @param binsPerDay numero di bin in un giorno
+	 * @return la riga di valori del modello del bike station, <code>null</code> se il predittore non ha un modello
+	 */
+	public abstract double[] trainStation(StationSeries series, int binsPerDay);
+
+	/**
+	 * Sostituisce il modello del predittore con quello letto da file.
+	 * 
+	 * @param model il modello letto da file
+	 * @throws IOException se il modello non è valido
+	 */
+	protected abstract void setModel(ModelFile model) throws IOException;
+
+	/**
+	 * Lista di simboli utilizzati per la predizione con cui settare la matrice di confusione.
+	 * I simboli utilizzati sono degli interi da 0 a NUM_TARGET -1
+	 * 
+	 * @return lista di simboli utilizzati per la predizione. 
+	 */
+	protected List<String> getSymbols(){
+		List<String> symbols = new ArrayList<String>();
+		for (int i = 0; i < numCategories; i++)
+			symbols.add("" + i);
+
+		return symbols;
+	}
+
+	/**
+	 * Classifica la transazione di una serie e ritorna il valore della variabile di uscita
+	 * (intero tra 0 e {@link AbstractPredictor#getNumCategories()}-1).
+	 * 
+	 * @param series serie delle transazioni del bike station
+	 * @param k indice della transazione da classificare all'interno della serie
+	 * @param h indice dell'orizzonte in {@link #pws}
+	 * @return il valore della variabile da predire o -1 in caso di errore
+	 */
+	protected abstract int classify(StationSeries series, int k, int h);
+
+	/**
+	 * Classifica le transazioni per la prima finestra di predizione.
+	 */
+	@Override
+	public final void classify(int[] stationIds, int[] binIds, double[] averages, int[] sizes, int[] percIds,
+			int[] classified) {
+		classify(pw, stationIds, binIds, averages, sizes, percIds, classified);
+	}
+
+	/**
+	 * Controlla che gli array abbiano la stessa lunghezza e classifica le transazioni
+	 * con {@link #classifyBatch(int, int[], int[], double[], int[], int[], int[])}.
+	 */
+	@Override
+	public final void classify(int pw, int[] stationIds, int[] binIds, double[] averages, int[] sizes, int[] percIds,
+			int[] classified) {
+		checkLengths(stationIds.length, binIds, averages, sizes, percIds);
+		if (classified.length != stationIds.length)
+			throw new IllegalArgumentException("Arrays of different lengths");
+		
+		classifyBatch(getHorizonIndex(pw), stationIds, binIds, averages, sizes, percIds, classified);
+	}
+
+	/**
+	 * @param pw finestra di predizione
+	 * @return l'indice dell'orizzonte in {@link #pws}
+	 * @throws IllegalArgumentException se il predittore non predice la finestra di predizione
+	 */
+	protected int getHorizonIndex(int pw){
+		for (int h = 0; h < pws.length; h++)
+			if (pws[h] == pw)
+				return h;
+		throw new IllegalArgumentException("Unknown prediction window: " + pw);
+	}
+
+	/**
+	 * Controlla che gli array abbiano la stessa lunghezza e aggiorna il modello
+	 * con {@link #updateBatch(int, int[], int[], double[], int[], int[])}.
+	 */
+	@Override
+	public final void update(int binsPerDay, int[] stationIds, int[] binIds, double[] averages, int[] sizes,
+			int[] percIds) {
+		checkLengths(stationIds.length, binIds, averages, sizes, percIds);
+		updateBatch(binsPerDay, stationIds, binIds, averages, sizes, percIds);
+	}
+
+	private static void checkLengths(int length, int[] binIds, double[] averages, int[] sizes, int[] percIds){
+		if (binIds.length != length || averages.length != length || sizes.length != length 
+				|| percIds.length != length)
+			throw new IllegalArgumentException("Arrays of different lengths");
+	}
+
+	/**
+	 * Aggiorna il modello con le transazioni dei nuovi bin 
+	 * (vedi {@link Predictor#update(int, int[], int[], double[], int[], int[])}).
+	 * Gli array hanno tutti la stessa lunghezza.
+	 * 
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param stationIds id dei bike station
+	 * @param binIds id univoci dei bin
+	 * @param averages valori medi delle biciclette disponibili
+	 * @param sizes dimensioni dei bike station
+	 * @param percIds valori della variabile da predire
+	 */
+	protected abstract void updateBatch(int binsPerDay, int[] stationIds, int[] binIds, double[] averages, 
+			int[] sizes, int[] percIds);
+
+	/**
+	 * Classifica più transazioni (vedi {@link Predictor#classify(int, int[], int[], double[], int[], int[], int[])}).
+	 * Gli array hanno tutti la stessa lunghezza.
+	 * 
+	 * @param h indice dell'orizzonte in {@link #pws}
+	 * @param stationIds id dei bike station
+	 * @param binIds id giornalieri dei bin
+	 * @param averages valori medi delle biciclette disponibili
+	 * @param sizes dimensioni dei bike station
+	 * @param percIds valori della variabile da predire al tempo t0
+	 * @param classified array in cui memorizzare i valori predetti (-1 in caso di errore)
+	 */
+	protected abstract void classifyBatch(int h, int[] stationIds, int[] binIds, double[] averages, int[] sizes, 
+			int[] percIds, int[] classified);
+
+	/**
+	 * Valuta le prestazioni del modello per ogni orizzonte.
+	 * Le transazioni per cui non esiste la transazione al tempo t0+pw non sono considerate.
+	 * Se è utilizzato più di un thread i bike station sono suddivisi tra i thread: ogni thread
+	 * accumula le istanze in proprie matrici di confusione e le matrici sono poi unite.
+	 * 
+	 * @param dataTest map che contiene tutte le transazioni da classificare
+	 * 					per ogni bike station
+	 */
+	@Override
+	public void evaluate(Map<Integer, StationSeries> dataTest){		
+		List<StationSeries> stations = new ArrayList<StationSeries>(dataTest.values());
+		int numTasks = Math.min(numThreads, stations.size());
+		
+		PrimitiveConfusionMatrix[] merged = newMatrices();
+		if (numTasks <= 1)
+			evaluate(stations, merged);
+		else{
+			ExecutorService pool = Executors.newFixedThreadPool(numTasks);
+			try{
+				// Split the bike stations among the tasks
+				List<Future<PrimitiveConfusionMatrix[]>> futures = new ArrayList<Future<PrimitiveConfusionMatrix[]>>();
+				for (int t = 0; t < numTasks; t++){
+					final List<StationSeries> part = stations.subList(t * stations.size() / numTasks,
+							(t+1) * stations.size() / numTasks);
+					futures.add(pool.submit(new Callable<PrimitiveConfusionMatrix[]>(){
+						@Override
+						public PrimitiveConfusionMatrix[] call() {
+							PrimitiveConfusionMatrix[] partMatrices = newMatrices();
+							evaluate(part, partMatrices);
+							return partMatrices;
+						}
+					}));
+				}
+				
+				// Merge the confusion matrices
+				for (Future<PrimitiveConfusionMatrix[]> future : futures){
+					PrimitiveConfusionMatrix[] partMatrices = future.get();
+					for (int h = 0; h < pws.length; h++)
+						merged[h].merge(partMatrices[h]);
+				}
+			}catch(ExecutionException e){
+				throw new IllegalStateException("Evaluation failed", e.getCause());
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Evaluation interrupted", e);
+			}finally{
+				pool.shutdownNow();
+			}
+		}
+		
+		// Create the confusion matrices
+		ConfusionMatrix[] confusionMatrices = new ConfusionMatrix[pws.length];
+		for (int h = 0; h < pws.length; h++)
+			confusionMatrices[h] = merged[h].toConfusionMatrix(getSymbols(), "unknown");
+		matrices = merged;
+		cms = confusionMatrices;
+	}
+
+	/**
+	 * @return una matrice di confusione vuota per ogni orizzonte
+	 */
+	private PrimitiveConfusionMatrix[] newMatrices(){
+		PrimitiveConfusionMatrix[] newMatrices = new PrimitiveConfusionMatrix[pws.length];
+		for (int h = 0; h < pws.length; h++)
+			newMatrices[h] = new PrimitiveConfusionMatrix(numCategories);
+		return newMatrices;
+	}
+
+	/**
+	 * Classifica le transazioni di alcuni bike station per ogni orizzonte e aggiorna le matrici di confusione.
+	 * 
+	 * @param stations serie delle transazioni da classificare
+	 * @param stationMatrices matrici di confusione da aggiornare, una per ogni orizzonte
+	 */
+	private void evaluate(List<StationSeries> stations, PrimitiveConfusionMatrix[] stationMatrices){
+		// For each bike station
+		for (StationSeries series : stations){
+			for (int k = 0; k < series.getLength(); k++){ // for each transaction
+				for (int h = 0; h < pws.length; h++){ // for each horizon
+					// Get the right transaction k + pw
+					int kPw = getIndexKPw(k, pws[h], series); 
+					if (kPw == StationSeries.MISSING) // the transaction k+pw not exist
+						continue;
+	
+					int classifiedLabel = classify(series, k, h); // cassify the transaction
+					if (classifiedLabel == -1) // if -1 something classification is not ok
+						continue;
+				
+					int correctLabel = series.getPercId(kPw); // get the right value of the outcome
+					stationMatrices[h].addInstance(correctLabel, classifiedLabel); // update confusion matrix
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recupera in tempo costante l'indice della transazione traslata di PW, ossia la transazione
+	 * il cui identificatore del bin è pari a quello della <i>transazione k</i> più pw.
+	 * 
+	 * @param k l'indice della <i>transazione k</i>, ossia la transazione al tempo t0, all'interno
+	 * 			della serie <code>series</code>.
+	 * @param pw finestra di predizione per recuperare la <i>transazione k+pw</i>, ossia la transazione al tempo t0+pw
+	 * @param series serie in cui cercare la <i>transazione k+pw</i>
+	 * @return l'indice della <i>transazione k+pw</i> o {@link StationSeries#MISSING} se non esiste 
+	 */
+	protected static int getIndexKPw(int k, int pw, StationSeries series){
+		return series.indexOf(series.getBinId(k) + pw);
 	}
 
 	@Override
 	public final ConfusionMatrix getConfusionMatrix() {
-		return cm;
+		return getConfusionMatrix(pw);
+	}
+	
+	@Override
+	public final ConfusionMatrix getConfusionMatrix(int pw) {
+		int h = getHorizonIndex(pw);
+		return cms == null ? null : cms[h];
+	}
+	
+	/**
+	 * @return la matrice di confusione della prima finestra di predizione con accuratezza, precisione e recall
+	 * 			di ogni classe ed errore assoluto medio, <code>null</code> se il predittore non è stato valutato
+	 */
+	public final PrimitiveConfusionMatrix getPrimitiveConfusionMatrix() {
+		return getPrimitiveConfusionMatrix(pw);
+	}
+	
+	@Override
+	public final PrimitiveConfusionMatrix getPrimitiveConfusionMatrix(int pw) {
+		int h = getHorizonIndex(pw);
+		return matrices == null ? null : matrices[h];
 	}
 	
 	@Override
@@ -62,12 +418,27 @@ public abstract class AbstractPredictor implements Predictor{
 		return pw;
 	}
 	
+	@Override
+	public final int[] getPws() {
+		return pws.clone();
+	}
+	
+	/**
+	 * Con più orizzonti stampa la matrice di confusione di ogni orizzonte, preceduta dalla finestra di predizione.
+	 */
 	@Override
 	public String printInfo() {
 		StringBuilder sb = new StringBuilder();
-		if (cm != null){
-			sb.append(cm.toString());
-			sb.append("Accuracy: " + cm.getAccuracy());
+		ConfusionMatrix[] confusionMatrices = cms;
+		if (confusionMatrices != null){
+			for (int h = 0; h < pws.length; h++){
+				if (h > 0)
+					sb.append("\n\n");
+				if (pws.length > 1)
+					sb.append("PW " + pws[h] + ":\n");
+				sb.append(confusionMatrices[h].toString());
+				sb.append("Accuracy: " + confusionMatrices[h].getAccuracy());
+			}
 		}
 		else
 			sb.append("Cannot print the confusion matrix info\n");
@@ -0,0 +1,93 @@
+package prediction;
+
+import java.io.IOException;
+
+import mapreduce.BikeMiBinReducer;
+import mapreduce.FineBinTable;
+import mapreduce.SizeHistogram;
+
+import utility.BinUtil;
+
+/**
+ * Ricostruisce in memoria il dataset trasformato con un intervallo multiplo di quello di una {@link FineBinTable},
+ * senza rileggere il dataset iniziale e senza scrivere file.<br>
+ * Per ogni coppia (bike station, bin) gli istogrammi dei <code>factor</code> bin fini che lo compongono sono fusi
+ * in un {@link SizeHistogram} e la transazione è calcolata come fa {@link BikeMiBinReducer}: le transazioni
+ * sono quindi le stesse prodotte trasformando il dataset iniziale direttamente con l'intervallo più grande e
+ * con il numero di etichette indicato.<br>
+ * Le transazioni sono restituite ordinate per bike station e bin.
+ *
+ * @author Armando Segatori
+ * @see BinnedDataset#load(BinnedDataReader, int, int, int)
+ */
+public class AggregatedBinnedReader extends BinnedDataReader {
+
+	private final FineBinTable table;
+
+	/**
+	 * Numero di bin fini in un bin
+	 */
+	private final int factor;
+
+	private final int binsPerDay;
+
+	private final int numTarget;
+
+	private final SizeHistogram histogram = new SizeHistogram();
+
+	/**
+	 * Posizione della prossima terna da leggere
+	 */
+	private int position = 0;
+
+	/**
+	 * Costruttore
+	 *
+	 * @param table osservazioni aggregate con l'intervallo fine
+	 * @param factor numero di bin fini in un bin
+	 * @param binsPerDay numero di bin in un giorno
+	 * @param numTarget numero di valori che la variabile da predire può assumere
+	 */
+	public AggregatedBinnedReader(FineBinTable table, int factor, int binsPerDay, int numTarget){
+		if (factor < 1)
+			throw new IllegalArgumentException("Invalid aggregation factor: " + factor);
+		this.table = table;
+		this.factor = factor;
+		this.binsPerDay = binsPerDay;
+		this.numTarget = numTarget;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (position == table.getLength())
+			return false;
+
+		// Merge all the sizes of the fine bins of the (station, bin) pair
+		int id = table.getStationId(position);
+		int binId = table.getBinId(position) / factor;
+		histogram.clear();
+		for (; position < table.getLength() && table.getStationId(position) == id
+				&& table.getBinId(position) / factor == binId; position++)
+			histogram.add(table.getSize(position), table.getCount(position), table.getBikeSum(position));
+
+		// Get the right size, sum and count
+		int modalIndex = histogram.getModalIndex();
+		int correctSize = histogram.getSizeAt(modalIndex);
+		double count = histogram.getCountAt(modalIndex);
+		double sum = histogram.getBikeSumAt(modalIndex);
+
+		stationId = id;
+		dayId = BinUtil.getDayIdFromUniqueBinIdInAllDays(binsPerDay, binId);
+		dailyBinId = BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, binId);
+		size = correctSize;
+		average = sum / count;
+		percId = BikeMiBinReducer.getPercId(average, correctSize, numTarget);
+		return true;
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close: the table stays in memory
+	}
+
+}
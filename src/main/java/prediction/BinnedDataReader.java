@@ -0,0 +1,95 @@
+package prediction;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import mapreduce.ColumnarBinWriter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Legge il dataset trasformato da {@link mapreduce.BikeMiBinDriver}.<br>
+ * Il reader restituisce le transazioni una alla volta, già suddivise nei singoli campi:
+ * <li><i>dayId</i>: id univoco del giorno;</li>
+ * <li><i>stationId</i>: id univoco del bike station;</li>
+ * <li><i>dailyBinId</i>: id giornaliero del bin;</li>
+ * <li><i>average</i>: valore medio delle bicilette disponibili nel bin;</li>
+ * <li><i>size</i>: dimensione del bike station;</li>
+ * <li><i>percId</i>: etichetta della variabile da predire.</li>
+ * L'ordine delle transazioni non è garantito. Utilizzare {@link #open(Path, String, Configuration)}
+ * per ottenere il reader adatto al formato in cui è memorizzato il dataset.
+ *
+ * @author Armando Segatori
+ * @see SequenceFileBinnedReader
+ * @see ColumnarBinnedReader
+ */
+public abstract class BinnedDataReader implements Closeable {
+
+	protected int dayId;
+
+	protected int stationId;
+
+	protected int dailyBinId;
+
+	protected double average;
+
+	protected int size;
+
+	protected int percId;
+
+	/**
+	 * Apre il dataset trasformato memorizzato in una directory. Se la directory contiene il
+	 * formato colonnare (vedi {@link ColumnarBinWriter}) viene utilizzato {@link ColumnarBinnedReader},
+	 * altrimenti {@link SequenceFileBinnedReader}.
+	 *
+	 * @param input directory in cui è memorizzato il dataset trasformato
+	 * @param pattern da utilizzare per recuperare le informazioni dal dataset trasformato in <code>SequenceFile</code>
+	 * @param conf configurazione di Hadoop
+	 * @return il reader del dataset
+	 * @throws IOException
+	 */
+	public static BinnedDataReader open(Path input, String pattern, Configuration conf) throws IOException{
+		FileSystem fs = FileSystem.get(input.toUri(), conf);
+		FileStatus[] columnar = fs.globStatus(new Path(input, ColumnarBinWriter.FILE_PATTERN));
+		if (columnar != null && columnar.length > 0)
+			return new ColumnarBinnedReader(input, conf);
+
+		return new SequenceFileBinnedReader(input, pattern, conf);
+	}
+
+	/**
+	 * Legge la prossima transazione.
+	 *
+	 * @return <code>true</code> se è stata letta una transazione, <code>false</code> se tutti i file sono stati letti
+	 * @throws IOException
+	 */
+	public abstract boolean next() throws IOException;
+
+	public int getDayId() {
+		return dayId;
+	}
+
+	public int getStationId() {
+		return stationId;
+	}
+
+	public int getDailyBinId() {
+		return dailyBinId;
+	}
+
+	public double getAverage() {
+		return average;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getPercId() {
+		return percId;
+	}
+
+}
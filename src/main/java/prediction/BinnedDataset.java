@@ -0,0 +1,266 @@
+package prediction;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import utility.BinUtil;
+
+/**
+ * Dataset trasformato, letto una sola volta e condiviso da tutti i predittori.<br>
+ * Le transazioni dell'ultimo giorno formano il test set, quelle di tutti gli altri giorni il training set.
+ * Per ogni bike station le transazioni sono memorizzate in una {@link StationSeries} ordinata per id del bin:
+ * <li>nel training set l'id del bin è l'id univoco in tutta la finestra temporale;</li>
+ * <li>nel test set l'id del bin è l'id giornaliero.</li>
+ * Il dataset non deve essere modificato dai predittori.
+ *
+ * @author Armando Segatori
+ * @see Predictor#buildClassifier(BinnedDataset)
+ */
+public class BinnedDataset {
+
+	/**
+	 * Numero di giorni considerati
+	 */
+	private final int days;
+
+	/**
+	 * Numero di bins in un giorno
+	 */
+	private final int binsPerDay;
+
+	/**
+	 * Numero dei possibili valori che la variabile da predire può assumere
+	 */
+	private final int numTarget;
+
+	/**
+	 * Training set: transazioni di ogni bike station
+	 */
+	private final Map<Integer, StationSeries> training = new HashMap<Integer, StationSeries>();
+
+	/**
+	 * Test set: transazioni di ogni bike station
+	 */
+	private final Map<Integer, StationSeries> test = new HashMap<Integer, StationSeries>();
+
+	private BinnedDataset(int days, int binsPerDay, int numTarget){
+		this.days = days;
+		this.binsPerDay = binsPerDay;
+		this.numTarget = numTarget;
+	}
+
+	/**
+	 * Legge il dataset trasformato, lo suddivide in training e test set e ordina le transazioni.
+	 *
+	 * @param input directory in cui è memorizzato il dataset trasformato
+	 * @param pattern da utilizzare per recuperare le informazioni dal dataset trasformato
+	 * @param days numero di giorni da considerare
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param numTarget numero dei possibili valori che la variabile da predire può assumere
+	 * @return il dataset
+	 * @throws IOException
+	 */
+	public static BinnedDataset load(Path input, String pattern, int days, int binsPerDay, int numTarget)
+			throws IOException{
+		// Read data from all the files
+		BinnedDataReader reader = BinnedDataReader.open(input, pattern, new Configuration());
+		try{
+			return load(reader, days, binsPerDay, numTarget);
+		}finally{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Legge tutte le transazioni di un reader, le suddivide in training e test set e le ordina.
+	 * Il reader non viene chiuso.
+	 *
+	 * @param reader reader delle transazioni (ad esempio {@link AggregatedBinnedReader})
+	 * @param days numero di giorni da considerare
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param numTarget numero dei possibili valori che la variabile da predire può assumere
+	 * @return il dataset
+	 * @throws IOException
+	 */
+	public static BinnedDataset load(BinnedDataReader reader, int days, int binsPerDay, int numTarget)
+			throws IOException{
+		return load(reader, days, binsPerDay, numTarget, true);
+	}
+
+	/**
+	 * Legge solo il test set del dataset trasformato, ad esempio per valutare modelli allenati altrove
+	 * (vedi {@link mapreduce.BikeMiTrainDriver}): le transazioni del training set sono scartate durante
+	 * la lettura e il training set del dataset è vuoto.
+	 *
+	 * @param input directory in cui è memorizzato il dataset trasformato
+	 * @param pattern da utilizzare per recuperare le informazioni dal dataset trasformato
+	 * @param days numero di giorni da considerare
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param numTarget numero dei possibili valori che la variabile da predire può assumere
+	 * @return il dataset con il solo test set
+	 * @throws IOException
+	 */
+	public static BinnedDataset loadTest(Path input, String pattern, int days, int binsPerDay, int numTarget)
+			throws IOException{
+		BinnedDataReader reader = BinnedDataReader.open(input, pattern, new Configuration());
+		try{
+			return load(reader, days, binsPerDay, numTarget, false);
+		}finally{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Legge le transazioni di un reader, le suddivide in training e test set e le ordina.
+	 *
+	 * @param reader reader delle transazioni
+	 * @param days numero di giorni da considerare
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param numTarget numero dei possibili valori che la variabile da predire può assumere
+	 * @param withTraining <code>false</code> per scartare le transazioni del training set
+	 * @return il dataset
+	 * @throws IOException
+	 */
+	private static BinnedDataset load(BinnedDataReader reader, int days, int binsPerDay, int numTarget,
+			boolean withTraining) throws IOException{
+		BinnedDataset dataset = new BinnedDataset(days, binsPerDay, numTarget);
+		while (reader.next()){
+			int dayId = reader.getDayId();
+			if (BinUtil.isTestDay(dayId, days)) // Test set
+				add(dataset.test, reader, reader.getDailyBinId());
+			else if (withTraining) // Training set
+				add(dataset.training, reader, BinUtil.getUniqueBinIdInAllDays(dayId, binsPerDay, reader.getDailyBinId()));
+		}
+
+		sort(dataset.training);
+		sort(dataset.test);
+		return dataset;
+	}
+
+	/**
+	 * Aggiunge la transazione appena letta alla serie del suo bike station.
+	 *
+	 * @param data map in cui aggiungere la transazione
+	 * @param reader reader posizionato sulla transazione da aggiungere
+	 * @param binId id del bin da memorizzare nella serie
+	 */
+	private static void add(Map<Integer, StationSeries> data, BinnedDataReader reader, int binId){
+		int bikeId = reader.getStationId(); // get the id of the bike station
+		StationSeries series = data.get(bikeId);
+		if (series == null){
+			series = new StationSeries(bikeId);
+			data.put(bikeId, series);
+		}
+
+		series.add(binId, reader.getAverage(), reader.getSize(), reader.getPercId());
+	}
+
+	/**
+	 * Aggiunge una transazione di un'altra serie alla serie del suo bike station.
+	 *
+	 * @param data map in cui aggiungere la transazione
+	 * @param source serie che contiene la transazione
+	 * @param k posizione della transazione nella serie
+	 * @param binId id del bin da memorizzare nella serie
+	 */
+	private static void add(Map<Integer, StationSeries> data, StationSeries source, int k, int binId){
+		StationSeries series = data.get(source.getStationId());
+		if (series == null){
+			series = new StationSeries(source.getStationId());
+			data.put(source.getStationId(), series);
+		}
+
+		series.add(binId, source.getAverage(k), source.getSize(k), source.getPercId(k));
+	}
+
+	/**
+	 * Ordina la serie di ogni bike station in base al bin id.
+	 *
+	 * @param data map da ordinare
+	 */
+	private static void sort(Map<Integer, StationSeries> data){
+		for (StationSeries series : data.values())
+			series.sort();
+	}
+
+	/**
+	 * Costruisce il dataset di un fold della validazione rolling-origin: il training set contiene le transazioni
+	 * dei giorni da 0 a <code>testDay</code>-1, il test set quelle del giorno <code>testDay</code>.
+	 * Il fold dell'ultimo giorno coincide con questo dataset.
+	 *
+	 * @param testDay id del giorno di test (da 1 a {@link #getDays()}-1)
+	 * @return il dataset del fold
+	 */
+	public BinnedDataset getFold(int testDay){
+		if (testDay < 1 || testDay >= days)
+			throw new IllegalArgumentException("Invalid test day " + testDay + " for " + days + " days");
+
+		BinnedDataset fold = new BinnedDataset(testDay + 1, binsPerDay, numTarget);
+		for (StationSeries series : training.values()){
+			for (int k = 0; k < series.getLength(); k++){
+				int dayId = BinUtil.getDayIdFromUniqueBinIdInAllDays(binsPerDay, series.getBinId(k));
+				if (dayId < testDay)
+					add(fold.training, series, k, series.getBinId(k));
+			}
+		}
+		fold.test.putAll(getDay(testDay));
+
+		sort(fold.training);
+		return fold;
+	}
+
+	/**
+	 * Recupera le transazioni di un giorno.
+	 *
+	 * @param dayId id del giorno (da 0 a {@link #getDays()}-1)
+	 * @return per ogni bike station la serie delle transazioni del giorno ordinata per id giornaliero del bin
+	 */
+	public Map<Integer, StationSeries> getDay(int dayId){
+		if (BinUtil.isTestDay(dayId, days))
+			return getTest();
+
+		Map<Integer, StationSeries> day = new HashMap<Integer, StationSeries>();
+		for (StationSeries series : training.values()){
+			for (int k = 0; k < series.getLength(); k++){
+				int binId = series.getBinId(k);
+				if (BinUtil.getDayIdFromUniqueBinIdInAllDays(binsPerDay, binId) == dayId)
+					add(day, series, k, BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, binId));
+			}
+		}
+
+		sort(day);
+		return Collections.unmodifiableMap(day);
+	}
+
+	/**
+	 * @return il training set: per ogni bike station la serie delle transazioni ordinata per id univoco del bin
+	 */
+	public Map<Integer, StationSeries> getTraining() {
+		return Collections.unmodifiableMap(training);
+	}
+
+	/**
+	 * @return il test set: per ogni bike station la serie delle transazioni ordinata per id giornaliero del bin
+	 */
+	public Map<Integer, StationSeries> getTest() {
+		return Collections.unmodifiableMap(test);
+	}
+
+	public int getDays() {
+		return days;
+	}
+
+	public int getBinsPerDay() {
+		return binsPerDay;
+	}
+
+	public int getNumTarget() {
+		return numTarget;
+	}
+
+}
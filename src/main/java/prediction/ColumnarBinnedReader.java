@@ -0,0 +1,132 @@
+package prediction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import mapreduce.ColumnarBinWriter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import utility.MappedFileUtil;
+
+/**
+ * Legge il dataset trasformato memorizzato in formato colonnare (vedi {@link ColumnarBinWriter}).<br>
+ * Se il dataset si trova sul filesystem locale ogni file è mappato in memoria con un'unica chiamata e i valori
+ * sono letti direttamente dalle pagine mappate, senza copie né conversioni. Sugli altri filesystem (ad esempio HDFS)
+ * il file viene letto in un unico buffer e poi acceduto allo stesso modo.
+ *
+ * @author Armando Segatori
+ * @see BinnedDataReader
+ */
+public class ColumnarBinnedReader extends BinnedDataReader {
+
+	private final FileSystem fs;
+
+	/**
+	 * File da leggere
+	 */
+	private final Path[] files;
+
+	/**
+	 * Indice del prossimo file da aprire
+	 */
+	private int nextFile = 0;
+
+	/**
+	 * Contenuto del file corrente
+	 */
+	private ByteBuffer buffer = null;
+
+	/**
+	 * Numero di transazioni del file corrente
+	 */
+	private int numRows = 0;
+
+	/**
+	 * Indice della prossima transazione da leggere nel file corrente
+	 */
+	private int row = 0;
+
+	private int dayIdOffset;
+	private int stationIdOffset;
+	private int dailyBinIdOffset;
+	private int averageOffset;
+	private int sizeOffset;
+	private int percIdOffset;
+
+	/**
+	 * Costruttore
+	 *
+	 * @param input directory in cui è memorizzato il dataset trasformato
+	 * @param conf configurazione di Hadoop
+	 * @throws IOException
+	 */
+	public ColumnarBinnedReader(Path input, Configuration conf) throws IOException{
+		fs = FileSystem.get(input.toUri(), conf);
+
+		// Get all the columnar files
+		FileStatus[] status = fs.globStatus(new Path(input, ColumnarBinWriter.FILE_PATTERN));
+		if (status == null || status.length == 0)
+			throw new IOException("No columnar files found in " + input);
+		files = new Path[status.length];
+		for (int i = 0; i < status.length; i++)
+			files[i] = status[i].getPath();
+		Arrays.sort(files);
+	}
+
+	/**
+	 * Apre un file: lo mappa in memoria se si trova sul filesystem locale, altrimenti lo legge in un buffer.
+	 *
+	 * @param file il file da aprire
+	 * @throws IOException
+	 */
+	private void openFile(Path file) throws IOException{
+		buffer = MappedFileUtil.map(fs, file);
+
+		// Read the header
+		if (buffer.getInt(0) != ColumnarBinWriter.MAGIC)
+			throw new IOException("Not a columnar binned file: " + file);
+		if (buffer.getInt(4) != ColumnarBinWriter.VERSION)
+			throw new IOException("Unsupported columnar binned file version " + buffer.getInt(4) + ": " + file);
+		numRows = buffer.getInt(8);
+		row = 0;
+
+		// Compute the offset of each column
+		dayIdOffset = ColumnarBinWriter.HEADER_SIZE;
+		stationIdOffset = dayIdOffset + 4 * numRows;
+		dailyBinIdOffset = stationIdOffset + 4 * numRows;
+		averageOffset = dailyBinIdOffset + 4 * numRows;
+		sizeOffset = averageOffset + 8 * numRows;
+		percIdOffset = sizeOffset + 4 * numRows;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		while (buffer == null || row == numRows){
+			buffer = null;
+			if (nextFile == files.length)
+				return false;
+			openFile(files[nextFile++]);
+		}
+
+		dayId = buffer.getInt(dayIdOffset + 4 * row);
+		stationId = buffer.getInt(stationIdOffset + 4 * row);
+		dailyBinId = buffer.getInt(dailyBinIdOffset + 4 * row);
+		average = buffer.getDouble(averageOffset + 8 * row);
+		size = buffer.getInt(sizeOffset + 4 * row);
+		percId = buffer.getInt(percIdOffset + 4 * row);
+		row++;
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer = null;
+		nextFile = files.length;
+	}
+
+}
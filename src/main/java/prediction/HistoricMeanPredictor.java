@@ -1,23 +1,13 @@
 package prediction;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Pattern;
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.SequenceFile;
-import org.apache.hadoop.io.Text;
-import org.apache.mahout.classifier.ConfusionMatrix;
-import org.apache.mahout.math.DenseVector;
+import java.util.Set;
 import org.apache.mahout.math.Vector;
+
 import utility.BinUtil;
 
 public class HistoricMeanPredictor extends AbstractPredictor {
@@ -28,7 +18,22 @@ public class HistoricMeanPredictor extends AbstractPredictor {
 
     protected final int BIN_ID_INDEX_TRANSACTION = 1;
 
-    protected final Map<Integer, double[]> stationHistoricMean = new HashMap<Integer, double[]>();
+    /**
+     * Media storica di ogni bin giornaliero per ogni bike station. La map pubblicata
+     * non è mai modificata: ogni aggiornamento ne crea una nuova.
+     */
+    protected volatile Map<Integer, double[]> stationHistoricMean = new HashMap<Integer, double[]>();
+
+    /**
+     * Numero di transazioni di ogni bin giornaliero per ogni bike station, utilizzato per aggiornare le medie
+     */
+    private final Map<Integer, int[]> stationCounts = new HashMap<Integer, int[]>();
+
+    /**
+     * Somma delle etichette di ogni bin giornaliero per ogni bike station, utilizzata per aggiornare le medie:
+     * la media aggiornata è calcolata come la media allenata su tutte le transazioni
+     */
+    private final Map<Integer, double[]> stationSums = new HashMap<Integer, double[]>();
 
     /**
      * Costruttore
@@ -40,6 +45,17 @@ public class HistoricMeanPredictor extends AbstractPredictor {
     public HistoricMeanPredictor(int numCategories, int pw) {
         super(numCategories, pw);
     }
+
+    /**
+     * Costruttore. Tutti gli orizzonti sono predetti a partire dalle stesse medie storiche.
+     *
+     * @param numCategories numero di valori che la variabile di uscita può
+     * assumere
+     * @param pws finestre di predizione degli orizzonti
+     */
+    public HistoricMeanPredictor(int numCategories, int[] pws) {
+        super(numCategories, pws, 1);
+    }
  
     protected String getName() {
         return "Historic Mean Value Predictor";
@@ -48,7 +64,7 @@ public class HistoricMeanPredictor extends AbstractPredictor {
     
     /**
      * Classifica il vettore e ritorna il valore della variabile di uscita
-     * (intero tra 0 e {@link AbstractPredictor#getNumategories()}-1).
+     * (intero tra 0 e {@link AbstractPredictor#getNumategories()}-1) per la prima finestra di predizione.
      *
      * @param vector vettore da classificare. Il vettore deve avere dimensione 5
      * e rappresenta la transazione. Esso contiene (in ordine): Classifica il
@@ -68,114 +84,165 @@ public class HistoricMeanPredictor extends AbstractPredictor {
      */
    @Override
     public int classify(Vector vector) {
-        int stationId = (int) vector.get(0);
-        int t0 = (int) vector.get(BIN_ID_INDEX_TRANSACTION);
+        return classify((int) vector.get(0), (int) vector.get(BIN_ID_INDEX_TRANSACTION), 
+                (int) vector.get(vector.size() - 1), pw);
+    }
+
+    @Override
+    protected int classify(StationSeries series, int k, int h) {
+        return classify(series.getStationId(), series.getBinId(k), series.getPercId(k), pws[h]);
+    }
+
+    /**
+     * Classifica una transazione del bike station.
+     *
+     * @param stationId id del bike station
+     * @param t0 id giornaliero del bin
+     * @param Bt0 valore della variabile da predire al tempo t0
+     * @param pw finestra di predizione
+     * @return il valore della variabile di predire
+     */
+    protected int classify(int stationId, int t0, int Bt0, int pw) {
         double historicMean[] = stationHistoricMean.get(stationId);
+        if (historicMean == null)
+            return -1;
+        return classify(historicMean, t0, Bt0, pw);
+    }
+
+    /**
+     * Classifica una transazione a partire dalle medie storiche del suo bike station.
+     *
+     * @param historicMean media storica di ogni bin giornaliero del bike station
+     * @param t0 id giornaliero del bin
+     * @param Bt0 valore della variabile da predire al tempo t0
+     * @param pw finestra di predizione
+     * @return il valore della variabile di predire
+     */
+    protected int classify(double historicMean[], int t0, int Bt0, int pw) {
         double BTBt0pw = Math.round(historicMean[(t0+pw) % historicMean.length]);
         return (int) BTBt0pw;
     }
 
     /**
-     * Trasforma una lista di stringhe in un vettore compatibile con Mahout
-     *
-     * @param data lista da trasformare
-     * @return vector vettore che contiene gli stessi elementi della lista allo
-     * stesso indice
+     * Le medie storiche sono recuperate dalla map solo quando cambia il bike station.
      */
-    private Vector getVectorFromDataTransaction(List<String> data) {
-        Vector vec = new DenseVector(data.size());
-        int i = 0;
-        for (String value : data) {
-            vec.set(i++, Double.parseDouble(value));
+    @Override
+    protected void classifyBatch(int h, int[] stationIds, int[] binIds, double[] averages, int[] sizes, int[] percIds,
+            int[] classified) {
+        int pw = pws[h];
+        Map<Integer, double[]> means = stationHistoricMean; // the same tables for all the transactions
+        double historicMean[] = null;
+        for (int i = 0; i < stationIds.length; i++) {
+            if (i == 0 || stationIds[i] != stationIds[i - 1])
+                historicMean = means.get(stationIds[i]);
+            classified[i] = historicMean == null ? -1 : classify(historicMean, binIds[i], percIds[i], pw);
         }
-        return vec;
     }
 
     /**
-     * Ordina la lista per ogni bike station in base al bin id.
-     *
-     * @param data map da ordinare
+     * Le medie storiche sono aggiornate in tempo costante per ogni transazione a partire dalla somma e dal numero
+     * di transazioni di ogni bin giornaliero, con lo stesso calcolo dell'allenamento: il modello aggiornato è
+     * identico a quello allenato su tutte le transazioni. Le tabelle dei bike station aggiornati sono copiate e
+     * pubblicate tutte insieme al termine dell'aggiornamento.
      */
-    private void sort(HashMap<Integer, List<Vector>> data) {
-        // Define the comparator
-        Comparator<Vector> comparator = new Comparator<Vector>() {
-            @Override
-            public int compare(Vector o1, Vector o2) {
-                return new Double(o1.get(BIN_ID_INDEX_TRANSACTION)).compareTo(o2.get(BIN_ID_INDEX_TRANSACTION));
+    @Override
+    protected synchronized void updateBatch(int binsPerDay, int[] stationIds, int[] binIds, double[] averages,
+            int[] sizes, int[] percIds) {
+        Map<Integer, double[]> means = new HashMap<Integer, double[]>(stationHistoricMean);
+        Set<Integer> copied = new HashSet<Integer>();
+        for (int i = 0; i < stationIds.length; i++) {
+            double mean[] = means.get(stationIds[i]);
+            int n[] = stationCounts.get(stationIds[i]);
+            double sum[] = stationSums.get(stationIds[i]);
+            if (mean == null) {
+                mean = new double[binsPerDay];
+                Arrays.fill(mean, Double.NaN);
+                n = new int[binsPerDay];
+                sum = new double[binsPerDay];
+                stationCounts.put(stationIds[i], n);
+                stationSums.put(stationIds[i], sum);
+                means.put(stationIds[i], mean);
+                copied.add(stationIds[i]);
+            } else if (copied.add(stationIds[i])) {
+                mean = mean.clone(); // copy the published table before updating it
+                means.put(stationIds[i], mean);
             }
+            if (mean.length != binsPerDay)
+                throw new IllegalArgumentException("Model with " + mean.length + " bins per day instead of " + binsPerDay);
 
-        };
-
-        // For each bike station
-        for (Map.Entry<Integer, List<Vector>> entry : data.entrySet()) {
-            int id = entry.getKey();
-            List<Vector> currentVectorId = entry.getValue();
-            Collections.sort(currentVectorId, comparator); // sort the list
-            data.put(id, currentVectorId);
+            int dailyBin = BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, binIds[i]);
+            n[dailyBin]++;
+            sum[dailyBin] += percIds[i];
+            mean[dailyBin] = sum[dailyBin] / n[dailyBin];
         }
+        stationHistoricMean = means;
     }
 
     @Override
-    public void buildClassifier(Path input, String pattern, int days,
-            int binsPerDay, int numTarget)
-            throws IOException {
-
-        input = input.suffix("/part-r-00000");
+    public synchronized void buildClassifier(BinnedDataset dataset) {
+        train(dataset.getTraining(), dataset.getBinsPerDay()); // train the models
+        evaluate(dataset.getTest()); // test the model
+    }
 
-        Pattern splitter = Pattern.compile(pattern);
+    @Override
+    public int getModelKind() {
+        return ModelFile.HISTORIC_MEAN_MODEL;
+    }
 
-        // Holds Features for the training set
-        HashMap<Integer, List<Vector>> dataTraining = new HashMap<Integer, List<Vector>>();
-        // Holds Features for the test set
-        HashMap<Integer, List<Vector>> dataTest = new HashMap<Integer, List<Vector>>();
+    /**
+     * Per ogni bike station salva le medie storiche seguite dal numero di transazioni di ogni bin giornaliero,
+     * necessario per continuare ad aggiornare le medie dopo aver caricato il modello.
+     */
+    @Override
+    protected synchronized Map<Integer, double[]> getModelRows() {
+        Map<Integer, double[]> rows = new HashMap<Integer, double[]>();
+        for (Map.Entry<Integer, double[]> entry : stationHistoricMean.entrySet())
+            rows.put(entry.getKey(), getModelRow(entry.getValue(), stationCounts.get(entry.getKey())));
+        return rows;
+    }
 
-	////////////////////////////////////////////////////////
-        // 		 Reads data and set the parameters    //
-        ////////////////////////////////////////////////////////
-        Configuration conf = new Configuration();
-        // Recupero il filesystem utilizzato
-        FileSystem fs = FileSystem.get(input.toUri(), conf);
-        // Read data
-        SequenceFile.Reader reader = new SequenceFile.Reader(fs, input, conf);
-        IntWritable key = new IntWritable();
-        Text value = new Text();
-        while (reader.next(key, value)) {
-            String[] values = splitter.split(value.toString());
-            int dayId = key.get();
-            List<String> transaction = null;
-            int bikeId = Integer.parseInt(values[0]); // get the id of the bike station
-            if (dayId == days - 1) { // Test set
-                List<Vector> vectorBikeIdList = dataTest.get(bikeId);
-                if (vectorBikeIdList == null) {
-                    vectorBikeIdList = new ArrayList<Vector>();
-                }
+    @Override
+    public double[] trainStation(StationSeries series, int binsPerDay) {
+        double sum[] = new double[binsPerDay];
+        int n[] = new int[binsPerDay];
+        return getModelRow(train(series, binsPerDay, sum, n), n);
+    }
 
-                transaction = new ArrayList<String>(new ArrayList<String>(Arrays.asList(values)));
-                vectorBikeIdList.add(getVectorFromDataTransaction(transaction));
-                dataTest.put(bikeId, vectorBikeIdList); // add transaction to the test set
-            } else { // Training set
-                // get list of index
-                List<Vector> vectorBikeIdList = dataTraining.get(bikeId);
-                if (vectorBikeIdList == null) {
-                    vectorBikeIdList = new ArrayList<Vector>();
-                }
+    /**
+     * @param mean media storica di ogni bin giornaliero del bike station
+     * @param n numero di transazioni di ogni bin giornaliero del bike station
+     * @return la riga di valori da salvare per il bike station
+     */
+    private static double[] getModelRow(double mean[], int n[]) {
+        double row[] = Arrays.copyOf(mean, 2 * mean.length);
+        for (int k = 0; k < n.length; k++)
+            row[mean.length + k] = n[k];
+        return row;
+    }
 
-                values[1] = "" + BinUtil.getUniqueBinIdInAllDays(dayId, binsPerDay, Integer.parseInt(values[1]));
-                transaction = new ArrayList<String>(new ArrayList<String>(Arrays.asList(values)));;
-                vectorBikeIdList.add(getVectorFromDataTransaction(transaction));
-                dataTraining.put(bikeId, vectorBikeIdList); // add transaction to the training set
+    @Override
+    protected synchronized void setModel(ModelFile model) throws IOException {
+        if (model.getRowLength() % 2 != 0)
+            throw new IOException("Invalid historic mean length: " + model.getRowLength());
+
+        int binsPerDay = model.getRowLength() / 2;
+        Map<Integer, double[]> means = new HashMap<Integer, double[]>();
+        stationCounts.clear();
+        stationSums.clear();
+        for (int i = 0; i < model.getNumStations(); i++) {
+            double mean[] = new double[binsPerDay];
+            int n[] = new int[binsPerDay];
+            double sum[] = new double[binsPerDay];
+            for (int k = 0; k < binsPerDay; k++) {
+                mean[k] = model.getValue(i, k);
+                n[k] = (int) model.getValue(i, binsPerDay + k);
+                sum[k] = n[k] == 0 ? 0 : Math.rint(mean[k] * n[k]); // the labels are integers
             }
-
+            means.put(model.getStationId(i), mean);
+            stationCounts.put(model.getStationId(i), n);
+            stationSums.put(model.getStationId(i), sum);
         }
-
-        reader.close();
-
-        sort(dataTraining); // sort the training set
-        train(dataTraining, binsPerDay); // train the models
-
-        sort(dataTest); // sort the test set
-        evaluate(dataTest); // test the model
-
+        stationHistoricMean = means;
     }
 
     @Override
@@ -193,99 +260,47 @@ public class HistoricMeanPredictor extends AbstractPredictor {
      * training set
      * @param binsPerDay numero di bin in un giorno
      */
-    private void train(HashMap<Integer, List<Vector>> dataTraining, int binsPerDay) {
+    private void train(Map<Integer, StationSeries> dataTraining, int binsPerDay) {
+        Map<Integer, double[]> means = new HashMap<Integer, double[]>();
+        stationCounts.clear();
+        stationSums.clear();
         // For each bike station
-        for (Map.Entry<Integer, List<Vector>> entry : dataTraining.entrySet()) {
+        for (Map.Entry<Integer, StationSeries> entry : dataTraining.entrySet()) {
             double sum[] = new double[binsPerDay];
             int n[] = new int[binsPerDay];
-            List<Vector> currentVectorId = entry.getValue();
-            for (Vector vectorK : currentVectorId) {
-                // get class label
-                int classLabel = (int) vectorK.get(vectorK.size() - 1); // get the last index (the class label)
-                // Train the model
-                int dailyBin = (int) vectorK.get(BIN_ID_INDEX_TRANSACTION) % binsPerDay; 
-                sum[dailyBin] += classLabel;
-                n[dailyBin]++;
-            }
-            for(int k = 0; k < binsPerDay; k++)
-                sum[k] /= n[k];
+            double mean[] = train(entry.getValue(), binsPerDay, sum, n);
             // Put in the map the trained model
-            stationHistoricMean.put(entry.getKey(), sum);
+            means.put(entry.getKey(), mean);
+            stationCounts.put(entry.getKey(), n);
+            stationSums.put(entry.getKey(), sum);
 
         }
+        stationHistoricMean = means;
 
     }
 
     /**
-     * Lista di simboli utilizzati per la predizione con cui settare la matrice
-     * di confusione. I simboli utilizzati sono degli interi da 0 a NUM_TARGET
-     * -1
+     * Calcola la media storica di ogni bin giornaliero di un bike station.
      *
-     * @return lista di simboli utilizzati per la predizione.
-     */
-    private List<String> getSymbols() {
-        List<String> symbols = new ArrayList<String>();
-        for (int i = 0; i < numCategories; i++) {
-            symbols.add("" + i);
-        }
-
-        return symbols;
-    }
-
-    /**
-     * Recupera il vettore delle transazioni traslato di PW. Per controllare che
-     * sia corretto la differenza tra l'identificatore del bin del vettore al
-     * tempo t0,
-     * <i>vettore k</i> e l'identificatore del bin del vettore al tempo t0+pw,
-     * <i>vettore k+pw</i> deve essere pari a pw.
-     *
-     * @param k l'indice del <i>vettore k</i>, ossia il vettore al tempo t0,
-     * all'interno della lista <code>currentVector</code>.
-     * @param pw finestra di predizione per recuperare il <i>vettore k+pw</i>,
-     * ossia il vettore tempo t0+pw
-     * @param binId id del bin dele vettore k
-     * @param currentVector lista in cui cercare il <i>vettore k+pw</i>
-     * @return il <i>vettore k+pw</i> o null se non trovato
-     */
-    private Vector getVectorKPw(int k, int pw, int binId, List<Vector> currentVector) {
-        Vector vectorKPw = null;
-        for (int i = k + pw; i > k; i--) {
-            vectorKPw = currentVector.get(i);
-            if (vectorKPw.get(BIN_ID_INDEX_TRANSACTION) == binId + pw) {
-                return vectorKPw;
-            }
-        }
-
-        return null;
-    }
-
-    /**
-     * Valuta le prestazioni del modello appena allenato
-     *
-     * @param dataTest map che contiene tutte le transazioni da classificare per
-     * ogni bike station
+     * @param series serie del training set del bike station
+     * @param binsPerDay numero di bin in un giorno
+     * @param sum array in cui accumulare la somma delle etichette di ogni bin giornaliero
+     * @param n array in cui accumulare il numero di transazioni di ogni bin giornaliero
+     * @return la media storica di ogni bin giornaliero
      */
-    private void evaluate(HashMap<Integer, List<Vector>> dataTest) {
-        List<String> symbols = getSymbols();
-        cm = new ConfusionMatrix(symbols, "unknown"); // create the confusion matrix
-
-        // For each bike station
-        for (Map.Entry<Integer, List<Vector>> entry : dataTest.entrySet()) {
-            List<Vector> currentVectorId = entry.getValue(); // get the transactions to classify
-            for (int k = 0; k < currentVectorId.size() - pw; k++) { // for each transaction
-                Vector vectorK = currentVectorId.get(k); // get the vector of the transaction
-                int classifiedLabel = classify(vectorK); // classify the transaction
-                if (classifiedLabel == -1) // if -1 something classification is not ok
-                {
-                    continue;
-                }
-
-                // Get the right vector k + pw
-                Vector vectorKPw = getVectorKPw(k, pw, (int) vectorK.get(BIN_ID_INDEX_TRANSACTION), currentVectorId);
-                int correctLabel = (int) vectorKPw.get(vectorKPw.size() - 1); // get the right value of the outcome
-                cm.addInstance("" + correctLabel, "" + classifiedLabel); // update confusion matrix
-            }
+    private static double[] train(StationSeries series, int binsPerDay, double sum[], int n[]) {
+        for (int k = 0; k < series.getLength(); k++) {
+            // get class label
+            int classLabel = series.getPercId(k);
+            // Train the model
+            int dailyBin = series.getBinId(k) % binsPerDay; 
+            sum[dailyBin] += classLabel;
+            n[dailyBin]++;
         }
+        double mean[] = new double[binsPerDay];
+        for(int k = 0; k < binsPerDay; k++)
+            mean[k] = sum[k] / n[k];
+        return mean;
     }
 
-}
\ No newline at end of file
+}
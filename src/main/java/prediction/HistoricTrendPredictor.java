@@ -1,7 +1,5 @@
 package prediction;
 
-import org.apache.mahout.math.Vector;
-
 public class HistoricTrendPredictor extends HistoricMeanPredictor {
 
     /**
@@ -15,36 +13,34 @@ public class HistoricTrendPredictor extends HistoricMeanPredictor {
         super(numCategories, pw);
     }
 
+    /**
+     * Costruttore
+     *
+     * @param numCategories numero di valori che la variabile di uscita può
+     * assumere
+     * @param pws finestre di predizione degli orizzonti
+     */
+    public HistoricTrendPredictor(int numCategories, int[] pws) {
+        super(numCategories, pws);
+    }
+
     @Override
     protected String getName() {
         return "Historic Trend Value Predictor";
     }
     
     /**
-     * Classifica il vettore e ritorna il valore della variabile di uscita
-     * (intero tra 0 e {@link AbstractPredictor#getNumategories()}-1).
+     * Classifica una transazione sommando al valore al tempo t0 la variazione
+     * della media storica tra t0 e t0+pw.
      *
-     * @param vector vettore da classificare. Il vettore deve avere dimensione 5
-     * e rappresenta la transazione. Esso contiene (in ordine): Classifica il
-     * vettore e ritorna il valore della variabile di uscita (intero tra 0 e
-     * {@link AbstractPredictor#getNumategories()}-1). Il vettore deve avere
-     * dimensione 5 e rappresenta la transazione. Esso contiene (in ordine):
-     * <li>bike_station_id</li>
-     * <li>daily_bin_id</li>
-     * <li>available_bike_average</li>
-     * <li>bike_station_size</li>
-     * <li>category_id</li>
-     * Il <i>bike_station_id</i> è utilizzato per recuperare il corretto
-     * predittore.<br>
-     *
-     * @return il valore della variabile di predire o -1 in caso di errore
+     * @param historicMean media storica di ogni bin giornaliero del bike station
+     * @param t0 id giornaliero del bin
+     * @param Bt0 valore della variabile da predire al tempo t0
+     * @param pw finestra di predizione
+     * @return il valore della variabile di predire
      */
     @Override
-    public int classify(Vector vector) {
-        int stationId = (int) vector.get(0);
-        int t0 = (int) vector.get(BIN_ID_INDEX_TRANSACTION);
-        double historicMean[] = stationHistoricMean.get(stationId);
-        int Bt0 = (int)vector.get(vector.size()-1);
+    protected int classify(double historicMean[], int t0, int Bt0, int pw) {
         double BTBt0 = Math.round(historicMean[t0 % historicMean.length]);
         double BTBt0pw = Math.round(historicMean[(t0+pw) % historicMean.length]);
         int classified = (int) (Bt0 + BTBt0pw - BTBt0);
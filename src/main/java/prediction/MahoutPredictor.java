@@ -3,30 +3,41 @@ package prediction;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Pattern;
-
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
-import org.apache.hadoop.io.SequenceFile;
-import org.apache.hadoop.io.Text;
-import org.apache.mahout.classifier.ConfusionMatrix;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.Random;
+
+import org.apache.mahout.classifier.OnlineLearner;
+import org.apache.mahout.classifier.sgd.CrossFoldLearner;
 import org.apache.mahout.classifier.sgd.L2;
 import org.apache.mahout.classifier.sgd.OnlineLogisticRegression;
 import org.apache.mahout.math.DenseVector;
+import org.apache.mahout.math.Matrix;
 import org.apache.mahout.math.Vector;
 
 import utility.BinUtil;
 
 /**
  * Predittore che utilizza il LogistiRegression di Mahout.
- * Costruisce tanti predittori quante sono i bike station.
+ * Costruisce tanti predittori quante sono i bike station.<br>
+ * I predittori dei bike station sono indipendenti e possono essere allenati in parallelo da più thread:
+ * ogni modello dipende solo dalla serie del proprio bike station, allenata sempre nello stesso ordine,
+ * e quindi il risultato non dipende dal numero di thread.<br>
+ * I modelli possono essere aggiornati con le transazioni dei nuovi bin (vedi {@link #update(int, int[], int[], double[], int[], int[])})
+ * senza ripetere l'allenamento: i modelli pubblicati non sono mai modificati, l'aggiornamento allena delle copie
+ * e le pubblica sostituendo la map, così che la classificazione possa avvenire contemporaneamente.<br>
+ * Con più finestre di predizione ogni bike station ha un modello per ogni orizzonte: tutti i modelli
+ * sono allenati nella stessa scansione della serie, calcolando le feature di ogni transazione una sola volta.<br>
+ * Il numero di passate sulla serie, l'ordine delle transazioni e gli iperparametri della regressione sono
+ * configurati con {@link SgdSettings}: gli iperparametri possono anche essere scelti per ogni bike station
+ * e orizzonte con una ricerca su una griglia valutata con i <code>CrossFoldLearner</code> di Mahout.
  * 
  * @author Armando Segatori
  *
@@ -44,14 +55,25 @@ public class MahoutPredictor extends AbstractPredictor{
 	private final int FEATURE_SIZE = 3;
 	
 	/**
-	 * Indice del vettore delle transazioni in cui è memorizzato il binId
+	 * Map che contiene i predittori. Per ogni bike station un predittore per ogni orizzonte.
+	 * La map pubblicata non è mai modificata: ogni aggiornamento ne crea una nuova.
+	 */
+	private volatile Map<Integer, StationRegression[]> lrMap = null;
+
+	/**
+	 * Vettore con tutte le feature diverse da 0, per applicare la regolarizzazione a tutti i coefficienti
+	 */
+	private final Vector allFeatures = new DenseVector(FEATURE_SIZE).assign(1);
+
+	/**
+	 * Ultime transazioni di ogni bike station (tante quante la finestra di predizione più grande), in attesa del valore della variabile da predire al tempo t0+pw
 	 */
-	private final int BIN_ID_INDEX_TRANSACTION = 1;
+	private final Map<Integer, RecentRows> recentRows = new HashMap<Integer, RecentRows>();
 
 	/**
-	 * Map che contiene i predittori. Uno per ogni bike station.
+	 * Parametri dell'allenamento SGD
 	 */
-	private HashMap<Integer, OnlineLogisticRegression> lrMap = null;
+	private final SgdSettings sgd;
 
 	/**
 	 * Costruttore 
@@ -60,166 +82,431 @@ public class MahoutPredictor extends AbstractPredictor{
 	 * @param pw finestra di predizione
 	 */
 	public MahoutPredictor(int numCateogries, int pw){
-		super(numCateogries, pw);
-		lrMap = new HashMap<Integer, OnlineLogisticRegression>();
+		this(numCateogries, pw, 1);
 	}
 
 	/**
-	 * Lista di simboli utilizzati per la predizione con cui settare la matrice di confusione.
-	 * I simboli utilizzati sono degli interi da 0 a NUM_TARGET -1
+	 * Costruttore 
 	 * 
-	 * @return lista di simboli utilizzati per la predizione. 
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 * @param pw finestra di predizione
+	 * @param numThreads numero di thread utilizzati per allenare e valutare i predittori dei bike station
 	 */
-	private List<String> getSymbols(){
-		List<String> symbols = new ArrayList<String>();
-		for (int i = 0; i < numCategories; i++)
-			symbols.add("" + i);
+	public MahoutPredictor(int numCateogries, int pw, int numThreads){
+		this(numCateogries, new int[]{pw}, numThreads);
+	}
 
-		return symbols;
+	/**
+	 * Costruttore 
+	 * 
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 * @param pws finestre di predizione degli orizzonti
+	 * @param numThreads numero di thread utilizzati per allenare e valutare i predittori dei bike station
+	 */
+	public MahoutPredictor(int numCateogries, int[] pws, int numThreads){
+		this(numCateogries, pws, numThreads, SgdSettings.DEFAULT);
 	}
 
 	/**
-	 * Valuta le prestazioni del modello appena allenato
+	 * Costruttore 
 	 * 
-	 * @param dataTest map che contiene tutte le transazioni da classificare
-	 * 					per ogni bike station
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 * @param pws finestre di predizione degli orizzonti
+	 * @param numThreads numero di thread utilizzati per allenare e valutare i predittori dei bike station
+	 * @param sgd parametri dell'allenamento SGD
 	 */
-	private void evaluate(HashMap<Integer, List<Vector>> dataTest){		
-		List<String> symbols = getSymbols();
-		cm = new ConfusionMatrix(symbols, "unknown"); // create the confusion matrix
-		
-		// For each bike station
-		for (Entry<Integer, List<Vector>> entry : dataTest.entrySet()){
-			List<Vector> currentVectorId = entry.getValue(); // get the transactions to classify
-			for (int k = 0; k < currentVectorId.size()-pw; k++){ // for each transaction
-				Vector vectorK = currentVectorId.get(k); // get the vector of the transaction
-				int classifiedLabel = classify(vectorK); // cassify the transaction
-				if (classifiedLabel == -1) // if -1 something classification is not ok
-					continue;
-			
-				// Get the right vector k + pw
-				Vector vectorKPw = getVectorKPw(k, pw, (int)vectorK.get(BIN_ID_INDEX_TRANSACTION), currentVectorId); 
-				int correctLabel = (int)vectorKPw.get(vectorKPw.size()-1); // get the right value of the outcome
-				cm.addInstance("" + correctLabel, "" + classifiedLabel); // update confusion matrix
-			}
-		}
+	public MahoutPredictor(int numCateogries, int[] pws, int numThreads, SgdSettings sgd){
+		super(numCateogries, pws, numThreads);
+		this.sgd = sgd;
+		lrMap = new HashMap<Integer, StationRegression[]>();
 	}
-	
+
 	/**
-	 * Trasforma il vettore che contiene la transazione in un vettore che contiene
-	 * solamente le informazioni utilizzate per la predizione (feature).<br>
-	 * Il vettore delle transazione ha il seguente formato:<br>
-	 * [bike_station_id, bin_id, average, size, outcome_value]<br>
+	 * Scrive in un vettore le sole informazioni utilizzate per la predizione (feature).<br>
 	 * Il vettore delle features ha il seguente formato:<br>
 	 * [bin_id, average, size]<br>
+	 * Il vettore è riutilizzato per tutte le transazioni allenate dallo stesso thread: l'allenamento
+	 * di Mahout non mantiene riferimenti al vettore.
 	 * 
-	 * @param transactionVector vettore che contiene la transazione
-	 * @return vettore che contiene solamente le feature
+	 * @param features vettore di dimensione {@link #FEATURE_SIZE} da sovrascrivere
+	 * @param dailyBinId id giornaliero del bin
+	 * @param average valore medio delle biciclette disponibili nel bin
+	 * @param size dimensione del bike station
+	 * @return il vettore delle feature
 	 */
-	private Vector getFeatureVector(Vector transactionVector){
-		Vector vector = new DenseVector(FEATURE_SIZE);
-		for (int i = 0; i < FEATURE_SIZE; i++)
-			vector.set(i, transactionVector.get(i+1));
-		
-		return vector;
+	private static Vector setFeatures(Vector features, int dailyBinId, double average, int size){
+		features.setQuick(0, dailyBinId);
+		features.setQuick(1, average);
+		features.setQuick(2, size);
+		return features;
 	}
-	
+
 	/**
-	 * Il metodo è lo stesso di {@link #getFeatureVector} con la differenza che trasforma
-	 * l'id del bin in un bin id giornaliero.
+	 * Allena tanti modelli quanti sono i bike station.
+	 * Se è utilizzato più di un thread i bike station sono allenati in parallelo.
+	 * Con la ricerca degli iperparametri le coppie della griglia di tutti i bike station sono valutate
+	 * da un unico pool di thread, condiviso dai thread che allenano i bike station.
 	 * 
-	 * @param transactionVector vettore che contiene la transazione.
-	 * @param binsPerDay numero di bins in un giorno.
-	 * @return vettore che contiene solamente le feature
-	 */
-	private Vector getFeatureVector(Vector transactionVector, int binsPerDay){
-		transactionVector.set(BIN_ID_INDEX_TRANSACTION, 
-								BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, 
-										(int)transactionVector.get(BIN_ID_INDEX_TRANSACTION)));
-		
-		return getFeatureVector(transactionVector);
+	 * @param dataTraining map che contiene per ogni bike station la serie del training set
+	 * @param binsPerDay numero di bin in un giorno
+	 */
+	private void train(Map<Integer, StationSeries> dataTraining, final int binsPerDay){
+		final ExecutorService searchPool = sgd.isSearch() && sgd.getSearchThreads() > 1 
+				? Executors.newFixedThreadPool(sgd.getSearchThreads()) : null;
+		try{
+			train(dataTraining, binsPerDay, searchPool);
+		}finally{
+			if (searchPool != null)
+				searchPool.shutdownNow();
+		}
 	}
 
 	/**
-	 * Recupera il vettore delle transazioni traslato di PW. Per controllare che sia 
-	 * corretto la differenza tra l'identificatore del bin del vettore al tempo t0,
-	 * <i>vettore k</i> e l'identificatore del bin del vettore al tempo t0+pw, 
-	 * <i>vettore k+pw</i> deve essere pari a pw.
+	 * Allena tanti modelli quanti sono i bike station.
 	 * 
-	 * @param k l'indice del <i>vettore k</i>, ossia il vettore al tempo t0, all'interno della
-	 * 			lista <code>currentVector</code>.
-	 * @param pw finestra di predizione per recuperare il <i>vettore k+pw</i>, ossia il vettore  tempo t0+pw
-	 * @param binId id del bin dele vettore k
-	 * @param currentVector lista in cui cercare il <i>vettore k+pw</i>
-	 * @return il <i>vettore k+pw</i> o null se non trovato 
-	 */
-	private Vector getVectorKPw(int k, int pw, int binId, List<Vector> currentVector){
-		Vector vectorKPw = null;
-		for (int i = k + pw; i > k; i--){
-			vectorKPw = currentVector.get(i);
-			if (vectorKPw.get(BIN_ID_INDEX_TRANSACTION) == binId+pw) 
-				return vectorKPw;
-			
+	 * @param dataTraining map che contiene per ogni bike station la serie del training set
+	 * @param binsPerDay numero di bin in un giorno
+	 * @param searchPool pool con cui valutare le coppie della griglia o <code>null</code> per valutarle
+	 * 			nel thread che allena il bike station
+	 */
+	private void train(Map<Integer, StationSeries> dataTraining, final int binsPerDay, final ExecutorService searchPool){
+		Map<Integer, StationRegression[]> models = new HashMap<Integer, StationRegression[]>();
+		if (numThreads == 1){
+			// For each bike station
+			for (Entry<Integer, StationSeries> entry : dataTraining.entrySet())
+				models.put(entry.getKey(), train(entry.getValue(), binsPerDay, searchPool)); // put in the map the trained model
+			lrMap = models;
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try{
+			// Submit a task for each bike station
+			Map<Integer, Future<StationRegression[]>> futures = 
+					new HashMap<Integer, Future<StationRegression[]>>();
+			for (final Entry<Integer, StationSeries> entry : dataTraining.entrySet()){
+				futures.put(entry.getKey(), pool.submit(new Callable<StationRegression[]>(){
+					@Override
+					public StationRegression[] call() {
+						return train(entry.getValue(), binsPerDay, searchPool);
+					}
+				}));
+			}
+
+			// Put in the map the trained models
+			for (Entry<Integer, Future<StationRegression[]>> entry : futures.entrySet())
+				models.put(entry.getKey(), entry.getValue().get());
+			lrMap = models;
+		}catch(ExecutionException e){
+			throw new IllegalStateException("Training failed", e.getCause());
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Training interrupted", e);
+		}finally{
+			pool.shutdownNow();
 		}
-		
-		return null;
 	}
 
 	/**
-	 * Allena tanti modelli quanti sono i bike station.
+	 * Allena i modelli di un bike station, uno per ogni orizzonte, con il numero di passate di {@link SgdSettings}.
 	 * Per ogni feature al tempo t0 utilizza come variabile di predizione
-	 * quella al tempo t0+pw.
+	 * quella al tempo t0+pw di ogni orizzonte.
+	 * 
+	 * @param series serie del training set del bike station
+	 * @param binsPerDay numero di bin in un giorno
+	 * @param searchPool pool con cui valutare le coppie della griglia o <code>null</code> per valutarle
+	 * 			nel thread corrente
+	 * @return i modelli allenati, nell'ordine delle finestre di predizione
+	 */
+	private StationRegression[] train(StationSeries series, int binsPerDay, ExecutorService searchPool){
+		// Choose the hyperparameters of each horizon
+		double[] rates = new double[pws.length];
+		double[] lambdas = new double[pws.length];
+		Arrays.fill(rates, sgd.getLearningRate());
+		Arrays.fill(lambdas, sgd.getLambda());
+		if (sgd.isSearch())
+			search(series, binsPerDay, rates, lambdas, searchPool);
+		
+		// create the regressions
+		StationRegression[] lrs = new StationRegression[pws.length];
+		for (int h = 0; h < pws.length; h++)
+			lrs[h] = new StationRegression(numCategories, FEATURE_SIZE, rates[h], lambdas[h]);
+		// For each epoch
+		int[] order = newOrder(series);
+		Random random = newRandom(series);
+		for (int epoch = 0; epoch < sgd.getEpochs(); epoch++)
+			train(series, binsPerDay, lrs, shuffle(order, random));
+		
+		for (StationRegression lr : lrs)
+			lr.regularize(allFeatures); // apply the pending regularization: classify will not modify the model
+		return lrs;
+	}
+
+	/**
+	 * Esegue una passata sulle transazioni di un bike station e allena un modello per ogni orizzonte.
+	 * La posizione della transazione nella serie è utilizzata come chiave di tracciamento: con i
+	 * <code>CrossFoldLearner</code> ogni transazione appartiene quindi sempre allo stesso fold.
+	 * Le feature di ogni transazione sono scritte nello stesso vettore, allocato una sola volta per passata.
 	 * 
-	 * @param dataTraining map che contiene per ogni bike station la lista del training set
+	 * @param series serie del training set del bike station
 	 * @param binsPerDay numero di bin in un giorno
+	 * @param learners modelli da allenare, nell'ordine delle finestre di predizione
+	 * @param order posizioni delle transazioni nell'ordine in cui allenare i modelli
 	 */
-	private void train(HashMap<Integer, List<Vector>> dataTraining, int binsPerDay){
-		// For each bike station
-		for (Entry<Integer, List<Vector>> entry : dataTraining.entrySet()){
-			List<Vector> currentVectorId = entry.getValue();
-			// create the regression
-			OnlineLogisticRegression lr = 
-					new OnlineLogisticRegression(numCategories, FEATURE_SIZE, new L2());
-			// For each transaction
-			for (int k = 0; k < currentVectorId.size()-pw; k++){
-				Vector vectorK = currentVectorId.get(k); // get the vector k
-				// Get the right vector k+pw
-				Vector vectorKPw = getVectorKPw(k, pw, (int)vectorK.get(BIN_ID_INDEX_TRANSACTION), currentVectorId); 
-				// if null the vector k+pw not exist
-				if (vectorKPw == null)
+	private void train(StationSeries series, int binsPerDay, OnlineLearner[] learners, int[] order){
+		Vector features = new DenseVector(FEATURE_SIZE);
+		// For each transaction
+		for (int k : order){
+			boolean extracted = false;
+			for (int h = 0; h < pws.length; h++){ // for each horizon
+				// Get the right transaction k+pw
+				int kPw = getIndexKPw(k, pws[h], series); 
+				// the transaction k+pw not exist
+				if (kPw == StationSeries.MISSING)
 					continue;
 				
 				// Get the right value for the outcome
-				int actual = (int) vectorKPw.get(vectorKPw.size()-1); // get the last index (the class label)
+				int actual = series.getPercId(kPw);
 				// Train the model
-				lr.train(actual, getFeatureVector(vectorK, binsPerDay));
+				if (!extracted){
+					int dailyBinId = BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, series.getBinId(k));
+					setFeatures(features, dailyBinId, series.getAverage(k), series.getSize(k));
+					extracted = true;
+				}
+				learners[h].train(k, actual, features);
 			}
-			
-			// Put in the map the trained model
-			lrMap.put(entry.getKey(), lr); 
-			
 		}
+	}
 
+	/**
+	 * Sceglie gli iperparametri di ogni orizzonte di un bike station valutando le coppie (learning rate, lambda)
+	 * della griglia di {@link SgdSettings}, nell'ordine della griglia ed entro il budget di aggiornamenti.
+	 * Ogni coppia costa tanti aggiornamenti quante sono le passate per le transazioni della serie: il numero
+	 * di coppie valutate dipende quindi solo dalla serie e la scelta è deterministica.
+	 * Per ogni orizzonte è scelta la coppia con la log-likelihood migliore sui fold di validazione; se il budget
+	 * non permette di valutare alcuna coppia gli iperparametri non sono modificati.
+	 * 
+	 * @param series serie del training set del bike station
+	 * @param binsPerDay numero di bin in un giorno
+	 * @param rates learning rate di ogni orizzonte, sostituiti da quelli scelti
+	 * @param lambdas pesi della regolarizzazione di ogni orizzonte, sostituiti da quelli scelti
+	 * @param searchPool pool con cui valutare le coppie o <code>null</code> per valutarle nel thread corrente
+	 */
+	private void search(final StationSeries series, final int binsPerDay, double[] rates, double[] lambdas,
+			ExecutorService searchPool){
+		// Create a task for each pair of the grid within the budget
+		long cost = Math.max(1L, (long) sgd.getEpochs() * series.getLength());
+		long maxPairs = sgd.getBudgetUpdates() == 0 ? Long.MAX_VALUE : sgd.getBudgetUpdates() / cost;
+		List<double[]> pairs = new ArrayList<double[]>();
+		List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+		for (final double rate : sgd.getLearningRates()){
+			for (final double lambda : sgd.getLambdas()){
+				if (pairs.size() == maxPairs)
+					break;
+				pairs.add(new double[]{rate, lambda});
+				tasks.add(new Callable<double[]>(){
+					@Override
+					public double[] call() {
+						return evaluate(series, binsPerDay, rate, lambda);
+					}
+				});
+			}
+		}
+		
+		// Run the tasks, one after the other or in the shared pool
+		List<double[]> scores = new ArrayList<double[]>();
+		if (searchPool == null){
+			for (double[] pair : pairs)
+				scores.add(evaluate(series, binsPerDay, pair[0], pair[1]));
+		}
+		else{
+			try{
+				for (Future<double[]> future : searchPool.invokeAll(tasks))
+					scores.add(future.get());
+			}catch(ExecutionException e){
+				throw new IllegalStateException("Hyperparameter search failed", e.getCause());
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Hyperparameter search interrupted", e);
+			}
+		}
+		
+		// Choose the best pair of each horizon
+		for (int h = 0; h < pws.length; h++){
+			double best = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < pairs.size(); i++){
+				double[] score = scores.get(i);
+				if (!(score[h] > best)) // not better
+					continue;
+				best = score[h];
+				rates[h] = pairs.get(i)[0];
+				lambdas[h] = pairs.get(i)[1];
+			}
+		}
 	}
 
 	/**
-	 * Trasforma una lista di stringhe in un vettore compatibile con Mahout
+	 * Valuta una coppia di iperparametri allenando un <code>CrossFoldLearner</code> per ogni orizzonte con
+	 * le stesse passate dell'allenamento.
 	 * 
-	 * @param data lista da trasformare
-	 * @return vector vettore che contiene gli stessi elementi della lista allo stesso indice
+	 * @param series serie del training set del bike station
+	 * @param binsPerDay numero di bin in un giorno
+	 * @param rate learning rate
+	 * @param lambda peso della regolarizzazione
+	 * @return la log-likelihood sui fold di validazione di ogni orizzonte
 	 */
-	private Vector getVectorFromDataTransaction(List<String> data){
-		Vector vec = new DenseVector(data.size());
-		int i = 0;
-		for (String value : data)
-			vec.set(i++, Double.parseDouble(value));
+	private double[] evaluate(StationSeries series, int binsPerDay, double rate, double lambda){
+		CrossFoldLearner[] learners = new CrossFoldLearner[pws.length];
+		for (int h = 0; h < pws.length; h++)
+			learners[h] = new CrossFoldLearner(sgd.getFolds(), numCategories, FEATURE_SIZE, new L2())
+					.learningRate(rate).lambda(lambda);
+		int[] order = newOrder(series);
+		Random random = newRandom(series);
+		for (int epoch = 0; epoch < sgd.getEpochs(); epoch++)
+			train(series, binsPerDay, learners, shuffle(order, random));
+		
+		double[] scores = new double[pws.length];
+		for (int h = 0; h < pws.length; h++)
+			scores[h] = learners[h].logLikelihood();
+		return scores;
+	}
 
-		return vec;
+	/**
+	 * @param series serie del training set del bike station
+	 * @return le posizioni delle transazioni della serie, in ordine di bin
+	 */
+	private static int[] newOrder(StationSeries series){
+		int[] order = new int[series.getLength()];
+		for (int k = 0; k < order.length; k++)
+			order[k] = k;
+		return order;
+	}
+
+	/**
+	 * @param series serie del training set del bike station
+	 * @return il generatore con cui rimescolare le transazioni del bike station o <code>null</code> se le transazioni
+	 * 			non devono essere rimescolate
+	 */
+	private Random newRandom(StationSeries series){
+		return sgd.isShuffle() ? new Random(sgd.getSeed() * 31 + series.getStationId()) : null;
+	}
+
+	/**
+	 * Rimescola le posizioni delle transazioni (Fisher-Yates).
+	 * 
+	 * @param order posizioni da rimescolare
+	 * @param random generatore o <code>null</code> per non rimescolare le posizioni
+	 * @return le posizioni
+	 */
+	private static int[] shuffle(int[] order, Random random){
+		if (random == null)
+			return order;
+		for (int i = order.length - 1; i > 0; i--){
+			int j = random.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		return order;
+	}
+
+	/**
+	 * @return la finestra di predizione più grande
+	 */
+	private int getMaxPw(){
+		int maxPw = 0;
+		for (int pw : pws)
+			maxPw = Math.max(maxPw, pw);
+		return maxPw;
+	}
+
+	/**
+	 * Memorizza le ultime transazioni di ogni bike station del training set (tante quante
+	 * la finestra di predizione più grande), da cui
+	 * proseguire l'allenamento con {@link #update(int, int[], int[], double[], int[], int[])}.
+	 * 
+	 * @param dataTraining map che contiene per ogni bike station la serie del training set
+	 */
+	private void initRecentRows(Map<Integer, StationSeries> dataTraining){
+		recentRows.clear();
+		int maxPw = getMaxPw();
+		for (StationSeries series : dataTraining.values()){
+			RecentRows recent = new RecentRows(maxPw);
+			for (int k = Math.max(0, series.getLength() - maxPw); k < series.getLength(); k++)
+				recent.put(series.getBinId(k), series.getAverage(k), series.getSize(k));
+			recentRows.put(series.getStationId(), recent);
+		}
+	}
+
+	/**
+	 * Ogni nuova transazione del bin u fornisce il valore della variabile da predire per la transazione
+	 * del bin u-pw di ogni orizzonte, memorizzata tra le ultime transazioni del bike station: il modello
+	 * dell'orizzonte è allenato con la coppia e, dopo tutti gli orizzonti, la nuova transazione sostituisce
+	 * quella più vecchia. I modelli da allenare sono copiati e pubblicati tutti insieme al termine dell'aggiornamento.
+	 * Le ultime transazioni non sono salvate con il modello: dopo il caricamento le transazioni
+	 * dei primi bin servono solo a ricostruirle.
+	 */
+	@Override
+	protected synchronized void updateBatch(int binsPerDay, int[] stationIds, int[] binIds, double[] averages, 
+			int[] sizes, int[] percIds) {
+		Map<Integer, StationRegression[]> models = new HashMap<Integer, StationRegression[]>(lrMap);
+		Map<Integer, StationRegression[]> updated = new HashMap<Integer, StationRegression[]>();
+		Vector features = new DenseVector(FEATURE_SIZE);
+		int maxPw = getMaxPw();
+		for (int i = 0; i < stationIds.length; i++){
+			RecentRows recent = recentRows.get(stationIds[i]);
+			if (recent == null){
+				recent = new RecentRows(maxPw);
+				recentRows.put(stationIds[i], recent);
+			}
+			
+			for (int h = 0; h < pws.length; h++){ // for each horizon
+				int pw = pws[h];
+				// Get the transaction t0 = binId - pw
+				int slot = pw == 0 ? RecentRows.MISSING : recent.find(binIds[i] - pw);
+				if (pw != 0 && slot == RecentRows.MISSING)
+					continue;
+				
+				// Copy the models before training them
+				StationRegression[] lrs = updated.get(stationIds[i]);
+				if (lrs == null){
+					lrs = new StationRegression[pws.length];
+					StationRegression[] published = models.get(stationIds[i]);
+					for (int j = 0; j < pws.length; j++){
+						lrs[j] = published == null 
+								? new StationRegression(numCategories, FEATURE_SIZE, sgd.getLearningRate(), sgd.getLambda())
+								: published[j].copyRegression();
+					}
+					updated.put(stationIds[i], lrs);
+				}
+				
+				int dailyBinId;
+				if (pw == 0){
+					dailyBinId = BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, binIds[i]);
+					setFeatures(features, dailyBinId, averages[i], sizes[i]);
+				}
+				else{
+					dailyBinId = BinUtil.getBinIdFromUniqueBinIdInAllDays(binsPerDay, recent.binIds[slot]);
+					setFeatures(features, dailyBinId, recent.averages[slot], recent.sizes[slot]);
+				}
+				lrs[h].train(percIds[i], features);
+			}
+			
+			recent.put(binIds[i], averages[i], sizes[i]);
+		}
+		
+		// Publish the updated models
+		for (Entry<Integer, StationRegression[]> entry : updated.entrySet()){
+			for (StationRegression lr : entry.getValue())
+				lr.regularize(allFeatures);
+			models.put(entry.getKey(), entry.getValue());
+		}
+		lrMap = models;
 	}
 
 	/**
 	 * Classifica il vettore e ritorna il valore della variabile di uscita 
-	 * (intero tra 0 e {@link AbstractPredictor#getNumategories()}-1).
+	 * (intero tra 0 e {@link AbstractPredictor#getNumategories()}-1) per la prima finestra di predizione.
 	 * 
 	 * @params vettore da classificare. Il vettore deve avere dimensione 5 e rappresenta
 	 * 			la transazione. Esso contiene (in ordine): 
@@ -235,104 +522,157 @@ public class MahoutPredictor extends AbstractPredictor{
 	 */
 	@Override
 	public int classify(Vector vector) {
+		// Value in position 0 contains the bike_station_id
+		return classify((int)vector.get(0), (int)vector.get(1), vector.get(2), (int)vector.get(3), 0);
+	}
+
+	@Override
+	protected int classify(StationSeries series, int k, int h) {
+		return classify(series.getStationId(), series.getBinId(k), series.getAverage(k), series.getSize(k), h);
+	}
+
+	/**
+	 * Classifica una transazione del bike station senza allocare alcun vettore (vedi {@link StationRegression#classifyLabel(int, double, int)}).
+	 * 
+	 * @param stationId id del bike station, utilizzato per recuperare il corretto predittore
+	 * @param dailyBinId id giornaliero del bin
+	 * @param average valore medio delle biciclette disponibili nel bin
+	 * @param size dimensione del bike station
+	 * @param h indice dell'orizzonte
+	 * @return il valore della variabile di predire o -1 in caso di errore
+	 */
+	private int classify(int stationId, int dailyBinId, double average, int size, int h) {
 		// Get the righ online logistic regression
-		OnlineLogisticRegression lr = lrMap.get(new Integer((int)vector.get(0))); // Value in position 0 contains the bike_station_id
-		if (lr == null){
+		StationRegression[] lrs = lrMap.get(stationId);
+		if (lrs == null){
 			return -1; 
 		}
 		// Classify
-		Vector result =  lr.classifyFull(getFeatureVector(vector));
-		// Return the index with max value
-		return result.maxValueIndex();
+		return lrs[h].classifyLabel(dailyBinId, average, size);
 	}
 
 	/**
-	 * Ordina la lista per ogni bike station in base al bin id.
-	 * 
-	 * @param data map da ordinare
-	 */
-	private void sort(HashMap<Integer, List<Vector>> data){
-		// Define the comparator
-		Comparator<Vector> comparator = new Comparator<Vector>(){
-			@Override
-			public int compare(Vector o1, Vector o2) {
-				return new Double(o1.get(BIN_ID_INDEX_TRANSACTION)).compareTo(new Double(o2.get(BIN_ID_INDEX_TRANSACTION)));
+	 * Le transazioni sono classificate senza allocare alcun vettore; il predittore è recuperato dalla map
+	 * solo quando cambia il bike station.
+	 */
+	@Override
+	protected void classifyBatch(int h, int[] stationIds, int[] binIds, double[] averages, int[] sizes, int[] percIds,
+			int[] classified) {
+		Map<Integer, StationRegression[]> models = lrMap; // the same models for all the transactions
+		StationRegression lr = null;
+		for (int i = 0; i < stationIds.length; i++){
+			if (i == 0 || stationIds[i] != stationIds[i-1]){
+				StationRegression[] lrs = models.get(stationIds[i]);
+				lr = lrs == null ? null : lrs[h];
 			}
-
-		};
-	
-		// For each bike station
-		for (Entry<Integer, List<Vector>> entry : data.entrySet()){
-			int id = entry.getKey();
-			List<Vector> currentVectorId = entry.getValue();
-			Collections.sort(currentVectorId, comparator); // sort the list
-			data.put(id, currentVectorId);
+			if (lr == null){
+				classified[i] = -1;
+				continue;
+			}
+			
+			classified[i] = lr.classifyLabel(binIds[i], averages[i], sizes[i]);
 		}
 	}
-	
+
+	@Override
+	public synchronized void buildClassifier(BinnedDataset dataset) {
+		train(dataset.getTraining(), dataset.getBinsPerDay()); // train the models
+		initRecentRows(dataset.getTraining());
+		evaluate(dataset.getTest()); // test the model
+	}
 	
 	@Override
-	public void buildClassifier(Path input, String pattern, int days, 
-			int binsPerDay, int numTarget) 
-			throws IOException {
-		
-		input = input.suffix("/part-r-00000");
-
-		Pattern splitter =  Pattern.compile(pattern);
-
-		// Holds Features for the training set
-		HashMap<Integer, List<Vector>> dataTraining = new HashMap<Integer, List<Vector>>();
-		// Holds Features for the test set
-		HashMap<Integer, List<Vector>> dataTest = new HashMap<Integer, List<Vector>>();
-
-		////////////////////////////////////////////////////////
-		// 		 Reads data and set the parameters 			  //
-		////////////////////////////////////////////////////////
-		Configuration conf = new Configuration();
-		// Recupero il filesystem utilizzato
-		FileSystem fs = FileSystem.get(input.toUri(), conf);
-		// Read data
-		SequenceFile.Reader reader = new SequenceFile.Reader(fs, input, conf);
-		IntWritable key = new IntWritable();
-		Text value = new Text();
-		while (reader.next(key, value)){
-			String[] values = splitter.split(value.toString());
-			int dayId = key.get();
-			List<String> transaction = null;
-			int bikeId = Integer.parseInt(values[0]); // get the id of the bike station
-			if (dayId == days-1){ // Test set
-				List<Vector> vectorBikeIdList = dataTest.get(bikeId);
-				if (vectorBikeIdList == null)
-					vectorBikeIdList = new ArrayList<Vector>();
-
-				transaction = new ArrayList<String>(new ArrayList<String>(Arrays.asList(values)));
-				vectorBikeIdList.add(getVectorFromDataTransaction(transaction));
-				dataTest.put(bikeId, vectorBikeIdList); // add transaction to the test set
-			}
-			else{ // Training set
-				// get list of index
-				List<Vector> vectorBikeIdList = dataTraining.get(bikeId);
-				if (vectorBikeIdList == null)
-					vectorBikeIdList = new ArrayList<Vector>();
-				
-				values[1] = "" + BinUtil.getUniqueBinIdInAllDays(dayId, binsPerDay, Integer.parseInt(values[1]));
-				transaction = new ArrayList<String>(new ArrayList<String>(Arrays.asList(values)));;
-				vectorBikeIdList.add(getVectorFromDataTransaction(transaction));
-				dataTraining.put(bikeId, vectorBikeIdList); // add transaction to the training set
-			}
+	public int getModelKind() {
+		return ModelFile.LOGISTIC_REGRESSION_MODEL;
+	}
 
-		}
+	/**
+	 * Per ogni bike station salva la matrice dei coefficienti della regressione (riga per riga), seguita dallo
+	 * stato dell'allenamento: il numero di aggiornamenti di ogni feature e il numero di passi, da cui dipende
+	 * il learning rate con cui proseguire l'allenamento dopo il caricamento, e dagli iperparametri scelti
+	 * (learning rate iniziale e lambda). Con più orizzonti i valori di ogni
+	 * orizzonte sono concatenati nell'ordine delle finestre di predizione.
+	 * La regolarizzazione, che Mahout applica in modo lazy durante la classificazione, è già stata
+	 * applicata a tutti i coefficienti al termine dell'allenamento: il modello caricato classifica
+	 * quindi come il modello allenato.
+	 */
+	@Override
+	protected Map<Integer, double[]> getModelRows() {
+		Map<Integer, double[]> rows = new HashMap<Integer, double[]>();
+		for (Entry<Integer, StationRegression[]> entry : lrMap.entrySet())
+			rows.put(entry.getKey(), getModelRow(entry.getValue()));
+		
+		return rows;
+	}
 
-		reader.close();
+	/**
+	 * Le coppie della ricerca degli iperparametri sono valutate nel thread corrente: allenando un bike station
+	 * alla volta (ad esempio in un Reducer) un pool per ogni bike station costerebbe più della valutazione.
+	 */
+	@Override
+	public double[] trainStation(StationSeries series, int binsPerDay) {
+		return getModelRow(train(series, binsPerDay, null));
+	}
 
-		sort(dataTraining); // sort the training set
-		train(dataTraining, binsPerDay); // train the models
+	/**
+	 * @param lrs i modelli di un bike station, uno per ogni orizzonte
+	 * @return la riga di valori da salvare per il bike station
+	 */
+	private double[] getModelRow(StationRegression[] lrs){
+		int length = getModelRowLength();
+		double[] row = new double[pws.length * length];
+		for (int h = 0; h < pws.length; h++){
+			StationRegression lr = lrs[h];
+			int offset = h * length;
+			Matrix beta = lr.getBeta();
+			for (int i = 0; i < beta.rowSize(); i++)
+				for (int j = 0; j < beta.columnSize(); j++)
+					row[offset + i * beta.columnSize() + j] = beta.get(i, j);
+			for (int j = 0; j < FEATURE_SIZE; j++)
+				row[offset + (numCategories-1) * FEATURE_SIZE + j] = lr.getUpdateCount(j);
+			row[offset + length - 3] = lr.getStep();
+			row[offset + length - 2] = lr.rate;
+			row[offset + length - 1] = lr.penalty;
+		}
+		return row;
+	}
 
-		sort(dataTest); // sort the test set
-		evaluate(dataTest); // test the model
+	/**
+	 * @return il numero di valori salvati per ogni bike station e orizzonte: coefficienti, aggiornamenti di ogni feature,
+	 * 			passi, learning rate e lambda
+	 */
+	private int getModelRowLength(){
+		return (numCategories-1) * FEATURE_SIZE + FEATURE_SIZE + 3;
+	}
 
+	@Override
+	protected synchronized void setModel(ModelFile model) throws IOException {
+		int length = getModelRowLength();
+		if (model.getNumStations() > 0 && model.getRowLength() != pws.length * length)
+			throw new IOException("Invalid coefficients length: " + model.getRowLength());
+		
+		Map<Integer, StationRegression[]> models = new HashMap<Integer, StationRegression[]>();
+		for (int s = 0; s < model.getNumStations(); s++){
+			StationRegression[] lrs = new StationRegression[pws.length];
+			for (int h = 0; h < pws.length; h++){
+				int offset = h * length;
+				StationRegression lr = new StationRegression(numCategories, FEATURE_SIZE, 
+						model.getValue(s, offset + length - 2), model.getValue(s, offset + length - 1));
+				for (int i = 0; i < numCategories-1; i++)
+					for (int j = 0; j < FEATURE_SIZE; j++)
+						lr.setBeta(i, j, model.getValue(s, offset + i * FEATURE_SIZE + j));
+				double[] updateCounts = new double[FEATURE_SIZE];
+				for (int j = 0; j < FEATURE_SIZE; j++)
+					updateCounts[j] = model.getValue(s, offset + (numCategories-1) * FEATURE_SIZE + j);
+				lr.restore((int) model.getValue(s, offset + length - 3), updateCounts);
+				lrs[h] = lr;
+			}
+			models.put(model.getStationId(s), lrs);
+		}
+		lrMap = models;
+		recentRows.clear();
 	}
-	
+
 	@Override
 	public String printInfo() {
 		StringBuilder sb = new StringBuilder(NAME + ":\n");
@@ -340,4 +680,132 @@ public class MahoutPredictor extends AbstractPredictor{
 		return sb.toString();
 	}	
 
+	/**
+	 * Regressione logistica di un bike station che espone lo stato dell'allenamento, in modo da poterlo
+	 * salvare e proseguire l'allenamento dopo aver caricato il modello.
+	 */
+	private static class StationRegression extends OnlineLogisticRegression{
+		
+		/**
+		 * Learning rate iniziale
+		 */
+		private final double rate;
+		
+		/**
+		 * Peso della regolarizzazione
+		 */
+		private final double penalty;
+		
+		private StationRegression(int numCategories, int numFeatures, double rate, double penalty){
+			super(numCategories, numFeatures, new L2());
+			this.rate = rate;
+			this.penalty = penalty;
+			learningRate(rate);
+			lambda(penalty);
+		}
+		
+		/**
+		 * Classifica una transazione calcolando direttamente i prodotti tra i coefficienti e le feature, senza
+		 * allocare il vettore delle feature né quello delle probabilità. La categoria 0 ha sempre prodotto 0 e la
+		 * funzione di link di Mahout è monotona: la categoria con il prodotto massimo è quella con la probabilità
+		 * massima calcolata da <code>classifyFull</code> (a parità di valore la prima).
+		 * La regolarizzazione deve essere già stata applicata a tutti i coefficienti.
+		 * 
+		 * @param dailyBinId id giornaliero del bin
+		 * @param average valore medio delle biciclette disponibili nel bin
+		 * @param size dimensione del bike station
+		 * @return la categoria con la probabilità massima
+		 */
+		private int classifyLabel(int dailyBinId, double average, int size){
+			Matrix beta = getBeta();
+			int label = 0;
+			double max = 0;
+			for (int i = 0; i < beta.rowSize(); i++){
+				// Features in the order of setFeatures
+				double value = beta.getQuick(i, 0) * dailyBinId + beta.getQuick(i, 1) * average + beta.getQuick(i, 2) * size;
+				if (value > max){
+					max = value;
+					label = i + 1;
+				}
+			}
+			return label;
+		}
+		
+		/**
+		 * @return una copia del modello, con lo stesso stato dell'allenamento e gli stessi iperparametri
+		 */
+		private StationRegression copyRegression(){
+			StationRegression copy = new StationRegression(numCategories(), getBeta().columnSize(), rate, penalty);
+			copy.copyFrom(this);
+			return copy;
+		}
+		
+		/**
+		 * @param feature indice della feature
+		 * @return il numero di aggiornamenti della feature
+		 */
+		private double getUpdateCount(int feature){
+			return updateCounts.get(feature);
+		}
+		
+		/**
+		 * Ripristina lo stato dell'allenamento. La regolarizzazione deve essere già stata applicata a tutti i coefficienti.
+		 * 
+		 * @param step numero di passi
+		 * @param counts numero di aggiornamenti di ogni feature
+		 */
+		private void restore(int step, double[] counts){
+			this.step = step;
+			for (int j = 0; j < counts.length; j++)
+				updateCounts.setQuick(j, counts[j]);
+			updateSteps.assign(step);
+		}
+	}
+
+	/**
+	 * Ultime pw transazioni di un bike station, con pw la finestra di predizione più grande. La transazione
+	 * del bin u è memorizzata in posizione u % pw: la transazione del bin u-pw si trova quindi nella stessa
+	 * posizione in cui sarà memorizzata la transazione del bin u che la sostituisce, mentre quelle dei bin
+	 * tra u-pw+1 e u-1 sono ancora memorizzate.
+	 */
+	private static class RecentRows{
+		
+		/**
+		 * Valore di una posizione vuota o di una transazione non trovata
+		 */
+		private static final int MISSING = -1;
+		
+		private final int[] binIds;
+		
+		private final double[] averages;
+		
+		private final int[] sizes;
+		
+		private RecentRows(int pw){
+			int capacity = Math.max(1, pw);
+			binIds = new int[capacity];
+			averages = new double[capacity];
+			sizes = new int[capacity];
+			Arrays.fill(binIds, MISSING);
+		}
+		
+		/**
+		 * @param binId id univoco del bin
+		 * @return la posizione della transazione del bin o {@link #MISSING} se non è memorizzata
+		 */
+		private int find(int binId){
+			if (binId < 0)
+				return MISSING;
+			int slot = binId % binIds.length;
+			return binIds[slot] == binId ? slot : MISSING;
+		}
+		
+		private void put(int binId, double average, int size){
+			int slot = binId % binIds.length;
+			binIds[slot] = binId;
+			averages[slot] = average;
+			sizes[slot] = size;
+		}
+	}
+
 }
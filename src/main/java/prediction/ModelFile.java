@@ -0,0 +1,222 @@
+package prediction;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import utility.MappedFileUtil;
+
+/**
+ * File binario in cui è memorizzato il modello allenato di un predittore.<br>
+ * Il modello è composto da una riga di valori double di lunghezza fissa per ogni bike station
+ * (ad esempio i coefficienti della regressione o la tabella delle medie storiche). Il file contiene
+ * (big-endian):
+ * <li><i>header</i>: {@link #MAGIC} (int), {@link #VERSION} (int), tipo del modello (int), numero di
+ * 		categorie (int), numero di orizzonti H (int), H finestre di predizione (int), numero di bike station S (int),
+ * 		lunghezza delle righe L (int);</li>
+ * <li><i>stationId</i>: S int, in ordine crescente;</li>
+ * <li><i>values</i>: S * L double, una riga per ogni bike station.</li>
+ * Con più orizzonti la riga di ogni bike station è la concatenazione dei modelli di tutti gli orizzonti,
+ * nell'ordine delle finestre di predizione dell'header.<br>
+ * La posizione di ogni valore è calcolabile direttamente dall'header, quindi il file è mappato in memoria
+ * (vedi {@link MappedFileUtil#map(FileSystem, Path)}) e letto senza alcuna conversione.
+ *
+ * @author Armando Segatori
+ * @see Predictor#save(Path)
+ * @see Predictor#load(Path)
+ */
+public class ModelFile {
+
+	/**
+	 * Identificatore del formato ("BKMM")
+	 */
+	public static final int MAGIC = 0x424B4D4D;
+
+	/**
+	 * Versione del formato
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Dimensione in byte della parte fissa dell'header (senza le finestre di predizione)
+	 */
+	public static final int HEADER_SIZE = 7 * 4;
+
+	/**
+	 * Modello senza stato (vedi {@link LastValuePredictor})
+	 */
+	public static final int NO_MODEL = 0;
+
+	/**
+	 * Coefficienti della regressione logistica (vedi {@link MahoutPredictor})
+	 */
+	public static final int LOGISTIC_REGRESSION_MODEL = 1;
+
+	/**
+	 * Tabella delle medie storiche (vedi {@link HistoricMeanPredictor})
+	 */
+	public static final int HISTORIC_MEAN_MODEL = 2;
+
+	/**
+	 * Contenuto del file
+	 */
+	private final ByteBuffer buffer;
+
+	private final int numStations;
+
+	private final int rowLength;
+
+	/**
+	 * Posizione del primo id dei bike station
+	 */
+	private final int stationsOffset;
+
+	/**
+	 * Posizione della prima riga di valori
+	 */
+	private final int valuesOffset;
+
+	private ModelFile(ByteBuffer buffer, int numHorizons){
+		this.buffer = buffer;
+		int offset = HEADER_SIZE + 4 * numHorizons;
+		numStations = buffer.getInt(offset - 8);
+		rowLength = buffer.getInt(offset - 4);
+		stationsOffset = offset;
+		valuesOffset = stationsOffset + 4 * numStations;
+	}
+
+	/**
+	 * Scrive il modello di un predittore.
+	 *
+	 * @param file il file da scrivere
+	 * @param kind tipo del modello
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 * @param pws finestre di predizione degli orizzonti
+	 * @param rows per ogni bike station la riga di valori del modello (tutte le righe devono avere la stessa lunghezza)
+	 * @throws IOException
+	 */
+	public static void write(Path file, int kind, int numCategories, int[] pws, Map<Integer, double[]> rows)
+			throws IOException{
+		// Sort the bike stations
+		int[] stationIds = new int[rows.size()];
+		int i = 0;
+		for (Integer stationId : rows.keySet())
+			stationIds[i++] = stationId;
+		Arrays.sort(stationIds);
+		int rowLength = stationIds.length == 0 ? 0 : rows.get(stationIds[0]).length;
+
+		FileSystem fs = FileSystem.get(file.toUri(), new Configuration());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fs.create(file, true)));
+		try{
+			// Header
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(kind);
+			out.writeInt(numCategories);
+			out.writeInt(pws.length);
+			for (int pw : pws)
+				out.writeInt(pw);
+			out.writeInt(stationIds.length);
+			out.writeInt(rowLength);
+
+			// Bike stations and their rows
+			for (int stationId : stationIds)
+				out.writeInt(stationId);
+			for (int stationId : stationIds){
+				double[] row = rows.get(stationId);
+				if (row.length != rowLength)
+					throw new IOException("Model rows of different lengths: " + row.length + " and " + rowLength);
+				for (double value : row)
+					out.writeDouble(value);
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Mappa in memoria il modello di un predittore e controlla che sia compatibile con il predittore.
+	 *
+	 * @param file il file da leggere
+	 * @param kind tipo del modello atteso
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 * @param pws finestre di predizione degli orizzonti
+	 * @return il modello
+	 * @throws IOException se il file non contiene un modello compatibile
+	 */
+	public static ModelFile open(Path file, int kind, int numCategories, int[] pws) throws IOException{
+		FileSystem fs = FileSystem.get(file.toUri(), new Configuration());
+		ByteBuffer buffer = MappedFileUtil.map(fs, file);
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a model file: " + file);
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported model file version " + buffer.getInt(4) + ": " + file);
+		if (buffer.getInt(8) != kind)
+			throw new IOException("Model of type " + buffer.getInt(8) + " instead of " + kind + ": " + file);
+		int numHorizons = buffer.getInt(16);
+		if (numHorizons < 0 || buffer.capacity() < HEADER_SIZE + 4L * numHorizons)
+			throw new IOException("Truncated model file: " + file);
+		int[] filePws = new int[numHorizons];
+		for (int h = 0; h < numHorizons; h++)
+			filePws[h] = buffer.getInt(20 + 4 * h);
+		if (buffer.getInt(12) != numCategories || !Arrays.equals(filePws, pws))
+			throw new IOException("Model trained with " + buffer.getInt(12) + " categories and pw " + Arrays.toString(filePws)
+					+ " instead of " + numCategories + " and " + Arrays.toString(pws) + ": " + file);
+
+		ModelFile model = new ModelFile(buffer, numHorizons);
+		if (buffer.capacity() != model.valuesOffset + 8L * model.numStations * model.rowLength)
+			throw new IOException("Truncated model file: " + file);
+		return model;
+	}
+
+	/**
+	 * @return il numero di bike station del modello
+	 */
+	public int getNumStations() {
+		return numStations;
+	}
+
+	/**
+	 * @return il numero di valori del modello di ogni bike station
+	 */
+	public int getRowLength() {
+		return rowLength;
+	}
+
+	/**
+	 * @param index posizione del bike station (da 0 a {@link #getNumStations()}-1)
+	 * @return l'id del bike station
+	 */
+	public int getStationId(int index) {
+		return buffer.getInt(stationsOffset + 4 * index);
+	}
+
+	/**
+	 * @param index posizione del bike station (da 0 a {@link #getNumStations()}-1)
+	 * @param column posizione del valore nella riga (da 0 a {@link #getRowLength()}-1)
+	 * @return il valore del modello
+	 */
+	public double getValue(int index, int column) {
+		return buffer.getDouble(valuesOffset + 8 * (index * rowLength + column));
+	}
+
+	/**
+	 * @param index posizione del bike station (da 0 a {@link #getNumStations()}-1)
+	 * @return una copia della riga di valori del bike station
+	 */
+	public double[] getRow(int index) {
+		double[] row = new double[rowLength];
+		for (int column = 0; column < rowLength; column++)
+			row[column] = getValue(index, column);
+		return row;
+	}
+
+}
@@ -1,6 +1,7 @@
 package prediction;
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.hadoop.fs.Path;
 import org.apache.mahout.classifier.ConfusionMatrix;
@@ -27,6 +28,63 @@ public interface Predictor {
 	 */
 	public void buildClassifier(Path input, String pattern, int days, int binsPerDay, int numTarget) throws IOException;
 	
+	/**
+	 * Costruisce il modello del predittore a partire da un dataset già letto: utilizza il training set
+	 * per allenare il modello e il test set per testarlo. Lo stesso dataset può essere utilizzato da più predittori.
+	 * 
+	 * @param dataset il dataset trasformato
+	 */
+	public void buildClassifier(BinnedDataset dataset);
+	
+	/**
+	 * Aggiorna il modello con le transazioni dei bin appena chiusi, senza rileggere le transazioni
+	 * già utilizzate per allenarlo. La transazione i-esima è formata dai valori in posizione i degli
+	 * array in input, che devono avere tutti la stessa lunghezza; le transazioni di ogni bike station
+	 * devono essere in ordine crescente di bin. La classificazione può avvenire durante l'aggiornamento:
+	 * utilizza il modello precedente fino al termine dell'aggiornamento.
+	 * 
+	 * @param binsPerDay numero di bins in un giorno
+	 * @param stationIds id dei bike station
+	 * @param binIds id univoci dei bin in tutta la finestra temporale (vedi {@link utility.BinUtil})
+	 * @param averages valori medi delle biciclette disponibili
+	 * @param sizes dimensioni dei bike station
+	 * @param percIds valori della variabile da predire
+	 */
+	public void update(int binsPerDay, int[] stationIds, int[] binIds, double[] averages, int[] sizes, int[] percIds);
+	
+	/**
+	 * Valuta il modello corrente su un test set, senza allenarlo: le matrici di confusione di ogni orizzonte
+	 * sono sostituite da quelle del test set. Permette di valutare il modello dopo un aggiornamento
+	 * (vedi {@link #update(int, int[], int[], double[], int[], int[])}).
+	 * 
+	 * @param dataTest per ogni bike station la serie delle transazioni da classificare, ordinata per id giornaliero del bin
+	 */
+	public void evaluate(Map<Integer, StationSeries> dataTest);
+	
+	/**
+	 * Salva il modello allenato in un file binario (vedi {@link ModelFile}).
+	 * 
+	 * @param output file in cui salvare il modello
+	 * @throws IOException
+	 */
+	public void save(Path output) throws IOException;
+	
+	/**
+	 * Carica un modello salvato con {@link #save(Path)}, senza allenare il predittore: il file è
+	 * mappato in memoria e il predittore può classificare subito, senza leggere il dataset trasformato.
+	 * Il modello deve essere stato allenato con lo stesso numero di categorie e le stesse finestre di predizione.
+	 * 
+	 * @param input file da cui caricare il modello
+	 * @throws IOException
+	 */
+	public void load(Path input) throws IOException;
+
+	/**
+	 * @return il tipo del modello salvato dal predittore (vedi {@link ModelFile}): predittori con lo stesso
+	 * 		tipo possono caricare lo stesso file
+	 */
+	public int getModelKind();
+	
 	/**
 	 * Classificauna determinato vettore.
 	 * @param vector vettore che contiene la transazione da classificare
@@ -34,6 +92,34 @@ public interface Predictor {
 	 */
 	public int classify(Vector vector);
 	
+	/**
+	 * Classifica più transazioni con una sola chiamata, ad esempio le transazioni di tutti i bike station
+	 * nell'ultimo bin. La transazione i-esima è formata dai valori in posizione i degli array in input,
+	 * che devono avere tutti la stessa lunghezza.
+	 * 
+	 * @param stationIds id dei bike station
+	 * @param binIds id giornalieri dei bin
+	 * @param averages valori medi delle biciclette disponibili
+	 * @param sizes dimensioni dei bike station
+	 * @param percIds valori della variabile da predire al tempo t0
+	 * @param classified array in cui memorizzare i valori predetti (-1 in caso di errore)
+	 */
+	public void classify(int[] stationIds, int[] binIds, double[] averages, int[] sizes, int[] percIds, int[] classified);
+	
+	/**
+	 * Classifica più transazioni per una delle finestre di predizione del predittore
+	 * (vedi {@link #classify(int[], int[], double[], int[], int[], int[])}).
+	 * 
+	 * @param pw finestra di predizione, una di quelle restituite da {@link #getPws()}
+	 * @param stationIds id dei bike station
+	 * @param binIds id giornalieri dei bin
+	 * @param averages valori medi delle biciclette disponibili
+	 * @param sizes dimensioni dei bike station
+	 * @param percIds valori della variabile da predire al tempo t0
+	 * @param classified array in cui memorizzare i valori predetti (-1 in caso di errore)
+	 */
+	public void classify(int pw, int[] stationIds, int[] binIds, double[] averages, int[] sizes, int[] percIds, int[] classified);
+	
 	/**
 	 * Recupera la matrice di confusione
 	 * 
@@ -41,6 +127,23 @@ public interface Predictor {
 	 */
 	public ConfusionMatrix getConfusionMatrix();
 	
+	/**
+	 * Recupera la matrice di confusione di una finestra di predizione
+	 * 
+	 * @param pw finestra di predizione, una di quelle restituite da {@link #getPws()}
+	 * @return la matrice di confusione
+	 */
+	public ConfusionMatrix getConfusionMatrix(int pw);
+	
+	/**
+	 * Recupera i contatori della matrice di confusione di una finestra di predizione, che possono essere
+	 * uniti a quelli di altre valutazioni (vedi {@link PrimitiveConfusionMatrix#merge(PrimitiveConfusionMatrix)})
+	 * 
+	 * @param pw finestra di predizione, una di quelle restituite da {@link #getPws()}
+	 * @return la matrice di confusione o <code>null</code> se il predittore non è stato valutato
+	 */
+	public PrimitiveConfusionMatrix getPrimitiveConfusionMatrix(int pw);
+	
 	/**
 	 * Recupera il numero di valori che la variabile da predire può assumere.
 	 *
@@ -57,6 +160,13 @@ public interface Predictor {
 	 */
 	public int getPw();
 	
+	/**
+	 * Recupera tutte le finestre di predizione (orizzonti) del predittore. La prima è quella restituita da {@link #getPw()}.
+	 * 
+	 * @return le finestre di predizione del predittore
+	 */
+	public int[] getPws();
+	
 	/**
 	 * Recupera le informazioni sulle prestazioni del predittore.
 	 * 
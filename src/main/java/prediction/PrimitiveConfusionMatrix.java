@@ -0,0 +1,172 @@
+package prediction;
+
+import java.util.List;
+
+import org.apache.mahout.classifier.ConfusionMatrix;
+
+/**
+ * Matrice di confusione indicizzata direttamente dalle etichette (interi da 0 a numCategories-1).<br>
+ * A differenza di {@link ConfusionMatrix} di Mahout, l'aggiunta di un'istanza non crea stringhe e non
+ * esegue ricerche in una map: sono aggiornati solamente dei contatori. Accuratezza, precisione e recall
+ * di ogni classe ed errore assoluto medio sono calcolati dai contatori aggiornati ad ogni istanza.<br>
+ * La matrice non è thread-safe: ogni thread accumula le proprie istanze in una matrice diversa e
+ * le matrici sono poi unite con {@link #merge(PrimitiveConfusionMatrix)}. La matrice di Mahout
+ * è costruita solo al termine, con {@link #toConfusionMatrix(List, String)}.
+ *
+ * @author Armando Segatori
+ * @see AbstractPredictor#evaluate(java.util.Map)
+ */
+public class PrimitiveConfusionMatrix {
+
+	private final int numCategories;
+
+	/**
+	 * Numero di istanze per ogni coppia (etichetta corretta, etichetta predetta)
+	 */
+	private final long[][] counts;
+
+	/**
+	 * Numero di istanze per ogni etichetta corretta
+	 */
+	private final long[] correctTotals;
+
+	/**
+	 * Numero di istanze per ogni etichetta predetta
+	 */
+	private final long[] classifiedTotals;
+
+	private long total = 0;
+
+	/**
+	 * Numero di istanze classificate correttamente
+	 */
+	private long correct = 0;
+
+	/**
+	 * Somma delle differenze in valore assoluto tra etichetta corretta ed etichetta predetta
+	 */
+	private long absoluteError = 0;
+
+	/**
+	 * Costruttore
+	 *
+	 * @param numCategories numero di valori che la variabile di uscita può assumere
+	 */
+	public PrimitiveConfusionMatrix(int numCategories){
+		this.numCategories = numCategories;
+		counts = new long[numCategories][numCategories];
+		correctTotals = new long[numCategories];
+		classifiedTotals = new long[numCategories];
+	}
+
+	/**
+	 * Aggiunge un'istanza classificata.
+	 *
+	 * @param correctLabel etichetta corretta (da 0 a numCategories-1)
+	 * @param classifiedLabel etichetta predetta (da 0 a numCategories-1)
+	 */
+	public void addInstance(int correctLabel, int classifiedLabel){
+		counts[correctLabel][classifiedLabel]++;
+		correctTotals[correctLabel]++;
+		classifiedTotals[classifiedLabel]++;
+		total++;
+		if (correctLabel == classifiedLabel)
+			correct++;
+		else
+			absoluteError += Math.abs(correctLabel - classifiedLabel);
+	}
+
+	/**
+	 * Aggiunge a questa matrice le istanze di un'altra matrice.
+	 *
+	 * @param other matrice da unire, con lo stesso numero di etichette
+	 * @return questa matrice
+	 */
+	public PrimitiveConfusionMatrix merge(PrimitiveConfusionMatrix other){
+		if (other.numCategories != numCategories)
+			throw new IllegalArgumentException("Cannot merge confusion matrices with " + numCategories
+					+ " and " + other.numCategories + " categories");
+
+		for (int i = 0; i < numCategories; i++){
+			for (int j = 0; j < numCategories; j++)
+				counts[i][j] += other.counts[i][j];
+			correctTotals[i] += other.correctTotals[i];
+			classifiedTotals[i] += other.classifiedTotals[i];
+		}
+		total += other.total;
+		correct += other.correct;
+		absoluteError += other.absoluteError;
+		return this;
+	}
+
+	/**
+	 * @param correctLabel etichetta corretta
+	 * @param classifiedLabel etichetta predetta
+	 * @return il numero di istanze con etichetta <code>correctLabel</code> classificate come <code>classifiedLabel</code>
+	 */
+	public long getCount(int correctLabel, int classifiedLabel){
+		return counts[correctLabel][classifiedLabel];
+	}
+
+	/**
+	 * @return il numero di istanze
+	 */
+	public long getTotal(){
+		return total;
+	}
+
+	/**
+	 * @return la percentuale di istanze classificate correttamente (come {@link ConfusionMatrix#getAccuracy()})
+	 */
+	public double getAccuracy(){
+		return total == 0 ? Double.NaN : 100.0 * correct / total;
+	}
+
+	/**
+	 * @param label etichetta
+	 * @return la frazione delle istanze classificate come <code>label</code> che hanno etichetta <code>label</code>
+	 */
+	public double getPrecision(int label){
+		long classified = classifiedTotals[label];
+		return classified == 0 ? Double.NaN : (double) counts[label][label] / classified;
+	}
+
+	/**
+	 * @param label etichetta
+	 * @return la frazione delle istanze con etichetta <code>label</code> classificate correttamente
+	 */
+	public double getRecall(int label){
+		long actual = correctTotals[label];
+		return actual == 0 ? Double.NaN : (double) counts[label][label] / actual;
+	}
+
+	/**
+	 * Le etichette sono ordinate (rappresentano la percentuale di biciclette disponibili), quindi
+	 * la distanza tra etichetta corretta ed etichetta predetta misura la gravità dell'errore.
+	 *
+	 * @return la media delle differenze in valore assoluto tra etichetta corretta ed etichetta predetta
+	 */
+	public double getMeanAbsoluteError(){
+		return total == 0 ? Double.NaN : (double) absoluteError / total;
+	}
+
+	/**
+	 * Costruisce la matrice di confusione di Mahout con gli stessi valori.
+	 *
+	 * @param symbols simboli delle etichette, nell'ordine delle etichette
+	 * @param defaultLabel etichetta di default della matrice di Mahout
+	 * @return la matrice di confusione di Mahout
+	 */
+	public ConfusionMatrix toConfusionMatrix(List<String> symbols, String defaultLabel){
+		ConfusionMatrix cm = new ConfusionMatrix(symbols, defaultLabel);
+		for (int i = 0; i < numCategories; i++){
+			for (int j = 0; j < numCategories; j++){
+				if (counts[i][j] > Integer.MAX_VALUE)
+					throw new IllegalStateException("Too many instances for the Mahout confusion matrix");
+				cm.putCount(symbols.get(i), symbols.get(j), (int) counts[i][j]);
+			}
+		}
+		return cm;
+	}
+
+}
@@ -0,0 +1,108 @@
+package prediction;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Legge il dataset trasformato da {@link mapreduce.BikeMiBinDriver} memorizzato in <code>SequenceFile</code>.<br>
+ * Il Job MapReduce memorizza il dataset in un <code>SequenceFile</code> per ogni Reducer: il reader
+ * legge in sequenza tutti i file <code>part-*</code> presenti nella directory di input e suddivide
+ * ogni transazione nei singoli campi.
+ *
+ * @author Armando Segatori
+ * @see BinnedDataReader
+ */
+public class SequenceFileBinnedReader extends BinnedDataReader {
+
+	/**
+	 * Pattern dei file scritti dai Reducer
+	 */
+	public static final String PART_FILE_PATTERN = "part-*";
+
+	private final Configuration conf;
+
+	private final FileSystem fs;
+
+	/**
+	 * File da leggere
+	 */
+	private final Path[] parts;
+
+	/**
+	 * Indice del prossimo file da aprire
+	 */
+	private int nextPart = 0;
+
+	/**
+	 * Pattern utilizzato per recuperare le informazioni dal dataset trasformato
+	 */
+	private final Pattern splitter;
+
+	private SequenceFile.Reader reader = null;
+
+	private IntWritable key = new IntWritable();
+
+	private Text value = new Text();
+
+	/**
+	 * Costruttore
+	 *
+	 * @param input directory in cui è memorizzato il dataset trasformato
+	 * @param pattern da utilizzare per recuperare le informazioni dal dataset trasformato
+	 * @param conf configurazione di Hadoop
+	 * @throws IOException
+	 */
+	public SequenceFileBinnedReader(Path input, String pattern, Configuration conf) throws IOException{
+		this.conf = conf;
+		this.splitter = Pattern.compile(pattern);
+		fs = FileSystem.get(input.toUri(), conf);
+
+		// Get all the part files
+		FileStatus[] status = fs.globStatus(new Path(input, PART_FILE_PATTERN));
+		if (status == null || status.length == 0)
+			throw new IOException("No part files found in " + input);
+		parts = new Path[status.length];
+		for (int i = 0; i < status.length; i++)
+			parts[i] = status[i].getPath();
+		Arrays.sort(parts);
+	}
+
+	@Override
+	public boolean next() throws IOException{
+		while (reader == null || !reader.next(key, value)){
+			if (reader != null)
+				reader.close();
+			reader = null;
+			if (nextPart == parts.length)
+				return false;
+			reader = new SequenceFile.Reader(fs, parts[nextPart++], conf);
+		}
+
+		String[] values = splitter.split(value.toString());
+		dayId = key.get();
+		stationId = Integer.parseInt(values[0]);
+		dailyBinId = Integer.parseInt(values[1]);
+		average = Double.parseDouble(values[2]);
+		size = Integer.parseInt(values[3]);
+		percId = Integer.parseInt(values[4]);
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (reader != null)
+			reader.close();
+		reader = null;
+		nextPart = parts.length;
+	}
+
+}
@@ -0,0 +1,228 @@
+package prediction;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Parametri dell'allenamento SGD delle regressioni logistiche di {@link MahoutPredictor}.<br>
+ * <li><i>epochs</i>: numero di passate sulle transazioni di ogni bike station;</li>
+ * <li><i>shuffle</i>: se <code>true</code> l'ordine delle transazioni è rimescolato ad ogni passata, con un generatore
+ * 		inizializzato con <i>seed</i> e l'id del bike station (il risultato non dipende quindi dal numero di thread);</li>
+ * <li><i>learningRate</i> e <i>lambda</i>: learning rate iniziale e peso della regolarizzazione L2.</li>
+ * Con la ricerca degli iperparametri (<i>folds</i> maggiore di 0) per ogni bike station e orizzonte sono
+ * valutate tutte le coppie (learning rate, lambda) della griglia, ognuna con un <code>CrossFoldLearner</code>
+ * di Mahout allenato sulle stesse passate: le coppie sono valutate in parallelo da un pool di <i>searchThreads</i>
+ * thread, condiviso da tutti i bike station, e la coppia con la log-likelihood migliore sui fold di validazione
+ * è utilizzata per allenare il modello su tutte le transazioni. La ricerca di ogni bike station esegue al più
+ * <i>budgetUpdates</i> aggiornamenti (0 per non porre limiti): sono valutate solo le prime coppie della griglia
+ * il cui costo, passate per transazioni, rientra nel budget. Il budget non dipende dal tempo e il risultato
+ * resta quindi deterministico.
+ *
+ * @author Armando Segatori
+ */
+public class SgdSettings {
+
+	/**
+	 * Parametri di default: una sola passata nell'ordine dei bin, con i parametri di default di Mahout
+	 */
+	public static final SgdSettings DEFAULT = new SgdSettings(1, false, 0, 1, 1.0e-5, 0, new double[0], new double[0], 0, 1);
+
+	/**
+	 * Prefisso delle property con cui i parametri sono memorizzati nella configurazione di Hadoop
+	 */
+	private static final String PROPERTY_PREFIX = "sgd.";
+
+	private final int epochs;
+
+	private final boolean shuffle;
+
+	private final long seed;
+
+	private final double learningRate;
+
+	private final double lambda;
+
+	/**
+	 * Numero di fold della ricerca degli iperparametri (0 per non eseguirla)
+	 */
+	private final int folds;
+
+	/**
+	 * Learning rate della griglia
+	 */
+	private final double[] learningRates;
+
+	/**
+	 * Pesi della regolarizzazione della griglia
+	 */
+	private final double[] lambdas;
+
+	/**
+	 * Numero massimo di aggiornamenti della ricerca di ogni bike station (0 per non porre limiti)
+	 */
+	private final long budgetUpdates;
+
+	/**
+	 * Numero di thread con cui sono valutate le coppie della griglia, condivisi da tutti i bike station
+	 */
+	private final int searchThreads;
+
+	/**
+	 * Costruttore
+	 *
+	 * @param epochs numero di passate sulle transazioni (almeno 1)
+	 * @param shuffle <code>true</code> per rimescolare le transazioni ad ogni passata
+	 * @param seed seme del generatore con cui sono rimescolate le transazioni
+	 * @param learningRate learning rate iniziale
+	 * @param lambda peso della regolarizzazione L2
+	 * @param folds numero di fold della ricerca degli iperparametri (0 per non eseguirla, altrimenti almeno 2)
+	 * @param learningRates learning rate della griglia (vuota: solo <code>learningRate</code>)
+	 * @param lambdas pesi della regolarizzazione della griglia (vuota: solo <code>lambda</code>)
+	 * @param budgetUpdates numero massimo di aggiornamenti della ricerca di ogni bike station (0 per non porre limiti)
+	 * @param searchThreads numero di thread con cui sono valutate le coppie della griglia, condivisi da tutti i bike station
+	 */
+	public SgdSettings(int epochs, boolean shuffle, long seed, double learningRate, double lambda, int folds,
+			double[] learningRates, double[] lambdas, long budgetUpdates, int searchThreads){
+		if (epochs < 1)
+			throw new IllegalArgumentException("Invalid number of epochs: " + epochs);
+		if (folds < 0 || folds == 1)
+			throw new IllegalArgumentException("Invalid number of folds: " + folds);
+		if (budgetUpdates < 0)
+			throw new IllegalArgumentException("Negative update budget: " + budgetUpdates);
+
+		this.epochs = epochs;
+		this.shuffle = shuffle;
+		this.seed = seed;
+		this.learningRate = learningRate;
+		this.lambda = lambda;
+		this.folds = folds;
+		this.learningRates = learningRates.length == 0 ? new double[]{learningRate} : learningRates.clone();
+		this.lambdas = lambdas.length == 0 ? new double[]{lambda} : lambdas.clone();
+		this.budgetUpdates = budgetUpdates;
+		this.searchThreads = Math.max(1, searchThreads);
+	}
+
+	/**
+	 * Memorizza i parametri nella configurazione di Hadoop, ad esempio per allenare i modelli nei Reducer
+	 * (vedi {@link mapreduce.BikeMiTrainDriver}).
+	 *
+	 * @param conf configurazione di Hadoop
+	 */
+	public void write(Configuration conf){
+		conf.setInt(PROPERTY_PREFIX + "epochs", epochs);
+		conf.setBoolean(PROPERTY_PREFIX + "shuffle", shuffle);
+		conf.setLong(PROPERTY_PREFIX + "seed", seed);
+		conf.set(PROPERTY_PREFIX + "learning_rate", "" + learningRate);
+		conf.set(PROPERTY_PREFIX + "lambda", "" + lambda);
+		conf.setInt(PROPERTY_PREFIX + "folds", folds);
+		conf.setStrings(PROPERTY_PREFIX + "learning_rates", toStrings(learningRates));
+		conf.setStrings(PROPERTY_PREFIX + "lambdas", toStrings(lambdas));
+		conf.setLong(PROPERTY_PREFIX + "budget_updates", budgetUpdates);
+		conf.setInt(PROPERTY_PREFIX + "search_threads", searchThreads);
+	}
+
+	/**
+	 * Legge i parametri memorizzati con {@link #write(Configuration)}.
+	 *
+	 * @param conf configurazione di Hadoop
+	 * @return i parametri, {@link #DEFAULT} se non sono memorizzati
+	 */
+	public static SgdSettings read(Configuration conf){
+		if (conf.get(PROPERTY_PREFIX + "epochs") == null)
+			return DEFAULT;
+
+		return new SgdSettings(conf.getInt(PROPERTY_PREFIX + "epochs", 1),
+				conf.getBoolean(PROPERTY_PREFIX + "shuffle", false),
+				conf.getLong(PROPERTY_PREFIX + "seed", 0),
+				Double.parseDouble(conf.get(PROPERTY_PREFIX + "learning_rate")),
+				Double.parseDouble(conf.get(PROPERTY_PREFIX + "lambda")),
+				conf.getInt(PROPERTY_PREFIX + "folds", 0),
+				toDoubles(conf.getStrings(PROPERTY_PREFIX + "learning_rates")),
+				toDoubles(conf.getStrings(PROPERTY_PREFIX + "lambdas")),
+				conf.getLong(PROPERTY_PREFIX + "budget_updates", 0),
+				conf.getInt(PROPERTY_PREFIX + "search_threads", 1));
+	}
+
+	private static String[] toStrings(double[] values){
+		String[] strings = new String[values.length];
+		for (int i = 0; i < values.length; i++)
+			strings[i] = "" + values[i];
+		return strings;
+	}
+
+	private static double[] toDoubles(String[] strings){
+		if (strings == null)
+			return new double[0];
+		double[] values = new double[strings.length];
+		for (int i = 0; i < strings.length; i++)
+			values[i] = Double.parseDouble(strings[i].trim());
+		return values;
+	}
+
+	public int getEpochs() {
+		return epochs;
+	}
+
+	public boolean isShuffle() {
+		return shuffle;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public double getLearningRate() {
+		return learningRate;
+	}
+
+	public double getLambda() {
+		return lambda;
+	}
+
+	/**
+	 * @return <code>true</code> se gli iperparametri di ogni bike station sono scelti con la ricerca sulla griglia
+	 */
+	public boolean isSearch() {
+		return folds > 0;
+	}
+
+	public int getFolds() {
+		return folds;
+	}
+
+	/**
+	 * @return una copia dei learning rate della griglia
+	 */
+	public double[] getLearningRates() {
+		return learningRates.clone();
+	}
+
+	/**
+	 * @return una copia dei pesi della regolarizzazione della griglia
+	 */
+	public double[] getLambdas() {
+		return lambdas.clone();
+	}
+
+	public long getBudgetUpdates() {
+		return budgetUpdates;
+	}
+
+	public int getSearchThreads() {
+		return searchThreads;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("epochs=").append(epochs).append(", shuffle=").append(shuffle)
+			.append(", learningRate=").append(learningRate).append(", lambda=").append(lambda);
+		if (isSearch())
+			sb.append(", folds=").append(folds).append(", learningRates=").append(Arrays.toString(learningRates))
+				.append(", lambdas=").append(Arrays.toString(lambdas)).append(", budget=").append(budgetUpdates)
+				.append(" updates, searchThreads=").append(searchThreads);
+		return sb.toString();
+	}
+
+}
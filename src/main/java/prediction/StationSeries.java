@@ -0,0 +1,217 @@
+package prediction;
+
+import java.util.Arrays;
+
+/**
+ * Serie temporale delle transazioni di un bike station, memorizzata in array paralleli di tipi primitivi
+ * (id del bin, valore medio delle biciclette disponibili, dimensione del bike station ed etichetta della
+ * variabile da predire) invece che in una lista di vettori.<br>
+ * Le transazioni sono aggiunte con {@link #add(int, double, int, int)} e ordinate per id del bin con {@link #sort()}
+ * al termine della lettura; da quel momento la serie è in sola lettura e può essere condivisa tra più predittori.<br>
+ * L'ordinamento costruisce anche un indice denso per id del bin, che permette di recuperare in tempo costante
+ * la transazione di un qualsiasi bin (vedi {@link #indexOf(int)}).
+ *
+ * @author Armando Segatori
+ * @see BinnedDataset
+ */
+public class StationSeries {
+
+	/**
+	 * Capacità iniziale degli array
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Id del bike station
+	 */
+	private final int stationId;
+
+	/**
+	 * Valore dell'indice per i bin senza transazione
+	 */
+	public static final int MISSING = -1;
+
+	/**
+	 * Numero di transazioni memorizzate
+	 */
+	private int length = 0;
+
+	/**
+	 * Id del primo bin della serie
+	 */
+	private int firstBinId = 0;
+
+	/**
+	 * Posizione della transazione di ogni bin, a partire da {@link #firstBinId}, o {@link #MISSING}
+	 */
+	private int[] binIndex = new int[0];
+
+	private int[] binIds = new int[INITIAL_CAPACITY];
+
+	private float[] averages = new float[INITIAL_CAPACITY];
+
+	private int[] sizes = new int[INITIAL_CAPACITY];
+
+	private int[] percIds = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Costruttore
+	 *
+	 * @param stationId id del bike station
+	 */
+	public StationSeries(int stationId){
+		this.stationId = stationId;
+	}
+
+	/**
+	 * Aggiunge una transazione alla serie.
+	 *
+	 * @param binId id del bin
+	 * @param average valore medio delle biciclette disponibili nel bin
+	 * @param size dimensione del bike station
+	 * @param percId etichetta della variabile da predire
+	 */
+	public void add(int binId, double average, int size, int percId){
+		if (length == binIds.length){
+			int capacity = binIds.length * 2;
+			binIds = Arrays.copyOf(binIds, capacity);
+			averages = Arrays.copyOf(averages, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			percIds = Arrays.copyOf(percIds, capacity);
+		}
+
+		binIds[length] = binId;
+		averages[length] = (float) average;
+		sizes[length] = size;
+		percIds[length] = percId;
+		length++;
+	}
+
+	/**
+	 * Ordina le transazioni per id del bin, libera la memoria non utilizzata degli array e costruisce
+	 * l'indice per id del bin.
+	 * Se le transazioni sono già ordinate (come avviene leggendo l'output di un singolo Reducer)
+	 * non viene eseguito alcun ordinamento.
+	 */
+	public void sort(){
+		boolean sorted = true;
+		for (int i = 1; sorted && i < length; i++)
+			sorted = binIds[i-1] <= binIds[i];
+
+		if (sorted){
+			binIds = Arrays.copyOf(binIds, length);
+			averages = Arrays.copyOf(averages, length);
+			sizes = Arrays.copyOf(sizes, length);
+			percIds = Arrays.copyOf(percIds, length);
+		}
+		else
+			sortByBinId();
+
+		buildIndex();
+	}
+
+	/**
+	 * Ordina gli array per id del bin.
+	 */
+	private void sortByBinId(){
+
+		// Sort the positions by bin id: bin id in the high bits, position in the low bits
+		long[] keys = new long[length];
+		for (int i = 0; i < length; i++)
+			keys[i] = ((long) binIds[i] << 32) | i;
+		Arrays.sort(keys);
+
+		int[] sortedBinIds = new int[length];
+		float[] sortedAverages = new float[length];
+		int[] sortedSizes = new int[length];
+		int[] sortedPercIds = new int[length];
+		for (int i = 0; i < length; i++){
+			int index = (int) keys[i];
+			sortedBinIds[i] = binIds[index];
+			sortedAverages[i] = averages[index];
+			sortedSizes[i] = sizes[index];
+			sortedPercIds[i] = percIds[index];
+		}
+		binIds = sortedBinIds;
+		averages = sortedAverages;
+		sizes = sortedSizes;
+		percIds = sortedPercIds;
+	}
+
+	/**
+	 * Costruisce l'indice denso dal primo all'ultimo bin della serie.
+	 */
+	private void buildIndex(){
+		if (length == 0){
+			binIndex = new int[0];
+			return;
+		}
+
+		firstBinId = binIds[0];
+		binIndex = new int[binIds[length-1] - firstBinId + 1];
+		Arrays.fill(binIndex, MISSING);
+		for (int i = 0; i < length; i++)
+			binIndex[binIds[i] - firstBinId] = i;
+	}
+
+	/**
+	 * Recupera in tempo costante la posizione della transazione di un bin.
+	 * La serie deve essere stata ordinata con {@link #sort()}.
+	 *
+	 * @param binId id del bin
+	 * @return la posizione della transazione o {@link #MISSING} se il bin non ha transazioni
+	 */
+	public int indexOf(int binId){
+		int offset = binId - firstBinId;
+		if (offset < 0 || offset >= binIndex.length)
+			return MISSING;
+		return binIndex[offset];
+	}
+
+	/**
+	 * @return l'id del bike station
+	 */
+	public int getStationId() {
+		return stationId;
+	}
+
+	/**
+	 * @return il numero di transazioni della serie
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @param index posizione della transazione (da 0 a {@link #getLength()}-1)
+	 * @return l'id del bin della transazione
+	 */
+	public int getBinId(int index) {
+		return binIds[index];
+	}
+
+	/**
+	 * @param index posizione della transazione (da 0 a {@link #getLength()}-1)
+	 * @return il valore medio delle biciclette disponibili della transazione
+	 */
+	public float getAverage(int index) {
+		return averages[index];
+	}
+
+	/**
+	 * @param index posizione della transazione (da 0 a {@link #getLength()}-1)
+	 * @return la dimensione del bike station della transazione
+	 */
+	public int getSize(int index) {
+		return sizes[index];
+	}
+
+	/**
+	 * @param index posizione della transazione (da 0 a {@link #getLength()}-1)
+	 * @return l'etichetta della variabile da predire della transazione
+	 */
+	public int getPercId(int index) {
+		return percIds[index];
+	}
+
+}
@@ -80,4 +80,18 @@ public class BinUtil {
 	public static int getDayIdFromUniqueBinIdInAllDays(int binsPerDay, int uniqueBinId){
 		return (int) uniqueBinId / binsPerDay; // Esegue la divisione e prende solamente la parte intera
 	}
+
+	/**
+	 * Controlla se un giorno appartiene al test set: il test set è formato dall'ultimo giorno della finestra
+	 * temporale, tutti gli altri giorni formano il training set.<br>
+	 * Il controllo è condiviso dal predittore allenato localmente e dal Job MapReduce di allenamento,
+	 * in modo che entrambi escludano lo stesso giorno dal training set.
+	 * 
+	 * @param dayId id del giorno (intero da 0 a D-1 dove D è il numero di giorni della finestra temporale)
+	 * @param days numero di giorni della finestra temporale
+	 * @return <code>true</code> se il giorno appartiene al test set
+	 */
+	public static boolean isTestDay(int dayId, int days){
+		return dayId == days - 1;
+	}
 }
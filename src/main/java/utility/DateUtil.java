@@ -1,39 +1,179 @@
 package utility;
 
-import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
-import javax.xml.bind.DatatypeConverter;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
 
 /**
  * Classe di utilità per convertira le date in stringhe e le stringhe in date.
- * 
+ *
  * @author Armando Segatori
  *
  */
 public class DateUtil {
 
+	/**
+	 * Millisecondi in un giorno
+	 */
+	private static final long MILLS_IN_A_DAY = 86400000; //  24 (hors) * 60 (minutes) * 60 (seconds) * 1000 (milliseconds);
+
+	/**
+	 * Lunghezza minima di una data nel formato YYYY-MM-GGTHH:MM:SS
+	 */
+	private static final int MIN_LENGTH = 19;
+
+	/**
+	 * Factory dei tipi XML utilizzata per i formati generici, creata una sola volta
+	 */
+	private static final DatatypeFactory DATATYPE_FACTORY = createDatatypeFactory();
+
 	/**
 	 * Trasforma un oggetto Date in stringa.
-	 * 
+	 *
 	 * @param date la data da trasformare in stringa
 	 * @returnla una stringa che rappresenta la data nel formato YYYY-MM-GGTHH:MM:SS+TIMEZONE
 	 */
 	public static String dateToIso8601String(Date date){
-		Calendar calendar = GregorianCalendar.getInstance();
+		GregorianCalendar calendar = new GregorianCalendar();
 		calendar.setTime(date);
-		return DatatypeConverter.printDateTime(calendar);
+		return DATATYPE_FACTORY.newXMLGregorianCalendar(calendar).toXMLFormat();
 	}
-	
+
 	/**
 	 * Trasforma la stringa in oggetto Date
-	 * 
+	 *
 	 * @param dateString  stringa che rappresenta la data nel formato YYYY-MM-GGTHH:MM:SS+TIMEZONE
 	 * @return oggetto Date
 	 */
 	public static Date stringIso8601ToDate(String dateString){
-		return ((Calendar)DatatypeConverter.parseDateTime(dateString)).getTime();
+		return DATATYPE_FACTORY.newXMLGregorianCalendar(dateString.trim()).toGregorianCalendar().getTime();
+	}
+
+	/**
+	 * Trasforma la stringa in millisecondi dall'epoch senza allocare oggetti.<br>
+	 * Il metodo è ottimizzato per il formato delle rilevazioni del dataset, YYYY-MM-GGTHH:MM:SS.FFFFFF
+	 * senza timezone, che viene interpretato nel timezone <code>timeZone</code> (come fa
+	 * {@link #stringIso8601ToDate(String)} con il timezone di default). Le cifre decimali dei secondi
+	 * sono opzionali e sono considerate solamente fino al millisecondo.
+	 * Per tutti gli altri formati e per le date non valide (ad esempio il 30 febbraio) viene utilizzato
+	 * {@link #stringIso8601ToDate(String)}, che le rifiuta.
+	 *
+	 * @param dateString stringa che rappresenta la data
+	 * @param timeZone timezone in cui interpretare la data. Per evitare allocazioni è bene recuperarlo
+	 * 			una sola volta, dal momento che {@link TimeZone#getDefault()} ne crea ogni volta una copia.
+	 * @return millisecondi dall'epoch
+	 */
+	public static long stringIso8601ToMillis(CharSequence dateString, TimeZone timeZone){
+		int length = dateString.length();
+		if (length < MIN_LENGTH || dateString.charAt(4) != '-' || dateString.charAt(7) != '-'
+				|| dateString.charAt(10) != 'T' || dateString.charAt(13) != ':' || dateString.charAt(16) != ':')
+			return stringIso8601ToDate(dateString.toString()).getTime();
+
+		int year = parseDigits(dateString, 0, 4);
+		int month = parseDigits(dateString, 5, 7);
+		int day = parseDigits(dateString, 8, 10);
+		int hour = parseDigits(dateString, 11, 13);
+		int minute = parseDigits(dateString, 14, 16);
+		int second = parseDigits(dateString, 17, 19);
+
+		// Fraction of second (only milliseconds are taken into account)
+		int millis = 0;
+		boolean validFraction = true;
+		if (length > MIN_LENGTH){
+			validFraction = dateString.charAt(MIN_LENGTH) == '.' && length > MIN_LENGTH + 1;
+			for (int i = MIN_LENGTH + 1; validFraction && i < length; i++){
+				int digit = dateString.charAt(i) - '0';
+				if (digit < 0 || digit > 9)
+					validFraction = false;
+				else if (i < MIN_LENGTH + 4)
+					millis = millis * 10 + digit;
+			}
+			for (int i = length; i < MIN_LENGTH + 4; i++)
+				millis *= 10;
+		}
+
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0 || hour > 23
+				|| minute < 0 || minute > 59 || second < 0 || second > 59 || !validFraction)
+			return stringIso8601ToDate(dateString.toString()).getTime();
+
+		// Local time in milliseconds
+		long localMillis = daysFromEpoch(year, month, day) * MILLS_IN_A_DAY
+				+ ((hour * 60L + minute) * 60L + second) * 1000L + millis;
+
+		// Convert to UTC: the offset is the one in force at the local time, standard time is used
+		// for the ambiguous hour after a DST transition
+		long utcMillis = localMillis - timeZone.getRawOffset();
+		int dstOffset = timeZone.getOffset(utcMillis) - timeZone.getRawOffset();
+		if (dstOffset != 0 && timeZone.getOffset(utcMillis - dstOffset) - timeZone.getRawOffset() == dstOffset)
+			utcMillis -= dstOffset;
+
+		return utcMillis;
+	}
+
+	/**
+	 * Converte in intero una sequenza di cifre decimali.
+	 *
+	 * @param s stringa che contiene le cifre
+	 * @param start indice della prima cifra (incluso)
+	 * @param end indice dell'ultima cifra (escluso)
+	 * @return il valore intero o -1 se la sequenza contiene caratteri che non sono cifre
+	 */
+	private static int parseDigits(CharSequence s, int start, int end){
+		int value = 0;
+		for (int i = start; i < end; i++){
+			int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Calcola il numero di giorni di un mese del calendario gregoriano, considerando gli anni bisestili.
+	 *
+	 * @param year anno
+	 * @param month mese (da 1 a 12)
+	 * @return il numero di giorni del mese
+	 */
+	private static int daysInMonth(int year, int month){
+		if (month == 2)
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
 	}
-	
+
+	/**
+	 * Calcola il numero di giorni tra l'epoch (1970-01-01) e una data del calendario gregoriano.
+	 *
+	 * @param year anno
+	 * @param month mese (da 1 a 12)
+	 * @param day giorno del mese (da 1 a 31)
+	 * @return il numero di giorni dall'epoch
+	 */
+	private static long daysFromEpoch(int year, int month, int day){
+		// Shift the year so that it starts in March and the leap day is the last one
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Crea la factory utilizzata per il parsing dei formati generici.
+	 *
+	 * @return la factory dei tipi XML
+	 */
+	private static DatatypeFactory createDatatypeFactory(){
+		try {
+			return DatatypeFactory.newInstance();
+		} catch (DatatypeConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 }
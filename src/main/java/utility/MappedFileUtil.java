@@ -0,0 +1,55 @@
+package utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+
+/**
+ * Classe di utilità per accedere al contenuto di un file come a un buffer in memoria.
+ *
+ * @author Armando Segatori
+ *
+ */
+public class MappedFileUtil {
+
+	/**
+	 * Recupera il contenuto di un file: se il file si trova sul filesystem locale è mappato in memoria con
+	 * un'unica chiamata e i valori sono letti direttamente dalle pagine mappate, senza copie né conversioni.
+	 * Sugli altri filesystem (ad esempio HDFS) il file viene letto in un unico buffer.
+	 *
+	 * @param fs filesystem del file
+	 * @param file il file da leggere
+	 * @return il contenuto del file (in sola lettura se mappato)
+	 * @throws IOException
+	 */
+	public static ByteBuffer map(FileSystem fs, Path file) throws IOException{
+		if (fs instanceof LocalFileSystem || fs instanceof RawLocalFileSystem){
+			RandomAccessFile raf = new RandomAccessFile(new File(file.toUri().getPath()), "r");
+			try{
+				FileChannel channel = raf.getChannel();
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}finally{
+				raf.close(); // the mapping stays valid
+			}
+		}
+
+		int length = (int) fs.getFileStatus(file).getLen();
+		byte[] bytes = new byte[length];
+		FSDataInputStream in = fs.open(file);
+		try{
+			in.readFully(0, bytes);
+		}finally{
+			in.close();
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+
+}